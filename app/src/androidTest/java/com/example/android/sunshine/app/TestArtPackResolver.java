@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+public class TestArtPackResolver extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testPackFollowsPreference() {
+        final ArtPackResolver resolver = ArtPackResolver.get(mContext);
+
+        setArtPack(R.string.pref_art_pack_sunshine);
+        assertTrue(resolver.getPack().local);
+        assertTrue(Utility.usingLocalGraphics(mContext));
+
+        final String cuteDogs = mContext.getString(R.string.pref_art_pack_cute_dogs);
+        setArtPack(R.string.pref_art_pack_cute_dogs);
+        assertFalse(resolver.getPack().local);
+        assertEquals(String.format(Locale.US, cuteDogs, "storm"),
+                Utility.getArtUrlForWeatherCondition(mContext, 211));
+        assertEquals(String.format(Locale.US, cuteDogs, "clouds"),
+                Utility.getArtUrlForWeatherCondition(mContext, 803));
+        assertNull(Utility.getArtUrlForWeatherCondition(mContext, 762));
+        assertNull(Utility.getArtUrlForWeatherCondition(mContext, 42));
+    }
+
+    public void testUrlsAreSharedWithinABucket() {
+        ArtPackResolver.Pack pack = ArtPackResolver.get(mContext).getPack();
+        // Built once per kind of art, not once per id
+        assertSame(pack.getArtUrl(500), pack.getArtUrl(531));
+        assertSame(pack.getArtUrl(600), pack.getArtUrl(511));
+    }
+
+    /**
+     * Sets the art pack and waits for the resolver, which hears about it on the main thread.
+     */
+    private void setArtPack(int artPackId) {
+        final String artPack = mContext.getString(artPackId);
+        mPrefs.edit().putString(mArtPackKey, artPack).commit();
+        final String sunshine = mContext.getString(R.string.pref_art_pack_sunshine);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return ArtPackResolver.get(mContext).getPack().local == artPack.equals(sunshine);
+            }
+        }.run();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Compares DisplayFormatter with the formatting Utility did before it: the strings must be
+    the same, and it should take less time and allocate less.
+ */
+public class TestDisplayFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDisplayFormatter.class.getSimpleName();
+
+    static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    // Each benchmark formats the dates of a two week forecast this many times
+    static final int BENCHMARK_ROUNDS = 200;
+    static final int FORECAST_DAYS = 14;
+
+    public void testSameStringsAsBefore() {
+        long now = System.currentTimeMillis();
+        for (long date = now - 2 * DAY_MS; date < now + 3 * FORECAST_DAYS * DAY_MS;
+             date += TimeUnit.HOURS.toMillis(5)) {
+            assertEquals(oldFriendlyDayString(mContext, date, true),
+                    Utility.getFriendlyDayString(mContext, date, true));
+            assertEquals(oldFriendlyDayString(mContext, date, false),
+                    Utility.getFriendlyDayString(mContext, date, false));
+            assertEquals(oldFullFriendlyDayString(mContext, date),
+                    Utility.getFullFriendlyDayString(mContext, date));
+        }
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 21.6),
+                DisplayFormatter.get(mContext).formatTemperature(21.6));
+        assertEquals(String.format(mContext.getString(R.string.format_wind_kmh), 12.3f, "NW"),
+                DisplayFormatter.get(mContext).formatWind(true, 12.3f, "NW"));
+    }
+
+    public void testInvalidateRebuildsFormatter() {
+        DisplayFormatter formatter = DisplayFormatter.get(mContext);
+        assertSame(formatter, DisplayFormatter.get(mContext));
+        DisplayFormatter.invalidate();
+        assertNotSame(formatter, DisplayFormatter.get(mContext));
+    }
+
+    public void testFormatterIsPerThread() throws Exception {
+        final DisplayFormatter[] other = new DisplayFormatter[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = DisplayFormatter.get(mContext);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(other[0]);
+        assertNotSame(other[0], DisplayFormatter.get(mContext));
+    }
+
+    public void testBenchmark() {
+        final long now = System.currentTimeMillis();
+        // Warm up both, so neither pays for class loading
+        runOld(now);
+        runNew(now);
+
+        Result oldResult = measure(new Runnable() {
+            @Override
+            public void run() {
+                runOld(now);
+            }
+        });
+        Result newResult = measure(new Runnable() {
+            @Override
+            public void run() {
+                runNew(now);
+            }
+        });
+        Log.i(LOG_TAG, "before: " + oldResult + "; DisplayFormatter: " + newResult);
+
+        // Allocation counting isn't available on every runtime
+        if (oldResult.allocations > 0) {
+            assertTrue("Error: expected fewer allocations than " + oldResult.allocations,
+                    newResult.allocations < oldResult.allocations);
+        }
+    }
+
+    private void runOld(long now) {
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            long date = now + day * DAY_MS;
+            oldFriendlyDayString(mContext, date, day == 0);
+            oldFullFriendlyDayString(mContext, date);
+        }
+    }
+
+    private void runNew(long now) {
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            long date = now + day * DAY_MS;
+            Utility.getFriendlyDayString(mContext, date, day == 0);
+            Utility.getFullFriendlyDayString(mContext, date);
+        }
+    }
+
+    static class Result {
+        final double callsPerSecond;
+        final int allocations;
+
+        Result(double callsPerSecond, int allocations) {
+            this.callsPerSecond = callsPerSecond;
+            this.allocations = allocations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f calls/s, %d allocations", callsPerSecond, allocations);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Result measure(Runnable rounds) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            rounds.run();
+        }
+        long elapsedNs = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int calls = BENCHMARK_ROUNDS * FORECAST_DAYS * 2;
+        return new Result(calls * 1e9 / Math.max(1, elapsedNs), Debug.getThreadAllocCount());
+    }
+
+    // What Utility did before DisplayFormatter
+
+    static String oldFriendlyDayString(Context context, long dateInMillis,
+                                       boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    oldFormattedMonthDay(dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return oldDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    static String oldFullFriendlyDayString(Context context, long dateInMillis) {
+        String day = oldDayName(context, dateInMillis);
+        int formatId = R.string.format_full_friendly_date;
+        return String.format(context.getString(
+                formatId,
+                day,
+                oldFormattedMonthDay(dateInMillis)));
+    }
+
+    static String oldDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    static String oldFormattedMonthDay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Checks which adapter updates a reload turns into: rows whose contents didn't change must
+    not be rebound, nor formatted again.
+ */
+public class TestForecastLoader extends AndroidTestCase {
+
+    static final long DAY_MS = 24 * 60 * 60 * 1000;
+    static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+
+    public void testIdenticalReloadChangesNothing() {
+        Updates updates = diff(createRows(0, 14), createRows(0, 14));
+        assertEquals("", updates.toString());
+    }
+
+    public void testChangedTemperatureRebindsOneRow() {
+        List<ForecastRow> newRows = createRows(0, 14);
+        ForecastRow row = newRows.get(5);
+        newRows.set(5, new ForecastRow(row.date, row.weatherId, row.dateText, row.todayDateText,
+                row.description, "25°", row.lowText, row.descriptionA11y, "High: 25°",
+                row.lowA11y, row.artUrl));
+
+        Updates updates = diff(createRows(0, 14), newRows);
+        assertEquals("changed 5+1 ", updates.toString());
+    }
+
+    public void testNewDayShiftsRows() {
+        // Overnight the first day drops off, one is added at the end, and the day that is now
+        // first is drawn in the today layout
+        Updates updates = diff(createRows(0, 14), createRows(1, 14));
+        assertEquals(1, updates.removed);
+        assertEquals(1, updates.inserted);
+        assertEquals(1, updates.changed);
+        assertEquals(0, updates.moved);
+    }
+
+    public void testArtPackChangeRebindsEveryRow() {
+        List<ForecastRow> newRows = new ArrayList<>();
+        for (ForecastRow row : createRows(0, 14)) {
+            newRows.add(new ForecastRow(row.date, row.weatherId, row.dateText,
+                    row.todayDateText, row.description, row.highText, row.lowText,
+                    row.descriptionA11y, row.highA11y, row.lowA11y,
+                    "http://example.com/" + row.weatherId + ".png"));
+        }
+        Updates updates = diff(createRows(0, 14), newRows);
+        assertEquals(14, updates.changed);
+    }
+
+    public void testFormatterReusesUnchangedRows() {
+        ForecastRowFormatter formatter = new ForecastRowFormatter(mContext);
+        formatter.startDataset();
+        ForecastRow first = formatter.getRow(TEST_DATE, 800, 21.0, 8.0, null);
+        ForecastRow second = formatter.getRow(TEST_DATE + DAY_MS, 500, 19.0, 7.0, null);
+        formatter.finishDataset();
+        assertEquals(2, formatter.getFormattedCount());
+        assertEquals(mContext.getString(R.string.a11y_high_temp, first.highText),
+                first.highA11y);
+        assertEquals(mContext.getString(R.string.a11y_forecast, second.description),
+                second.descriptionA11y);
+
+        // The second day's low changed; the first day is the same row as before
+        formatter.startDataset();
+        assertSame(first, formatter.getRow(TEST_DATE, 800, 21.0, 8.0, null));
+        ForecastRow changed = formatter.getRow(TEST_DATE + DAY_MS, 500, 19.0, 6.0, null);
+        formatter.finishDataset();
+        assertEquals(1, formatter.getFormattedCount());
+        assertNotSame(second, changed);
+        assertEquals(second.highText, changed.highText);
+
+        // Days dropped from a dataset are not kept
+        formatter.startDataset();
+        formatter.getRow(TEST_DATE + DAY_MS, 500, 19.0, 6.0, null);
+        formatter.finishDataset();
+        formatter.startDataset();
+        formatter.getRow(TEST_DATE, 800, 21.0, 8.0, null);
+        formatter.finishDataset();
+        assertEquals(1, formatter.getFormattedCount());
+    }
+
+    public void testSettingsChangeMakesRowsStale() {
+        ForecastRowFormatter formatter = new ForecastRowFormatter(mContext);
+        ForecastRowFormatter.Settings settings = formatter.startDataset();
+        formatter.finishDataset();
+        assertEquals(ForecastRowFormatter.Settings.read(mContext), settings);
+
+        // What a loader started again after midnight, or in another language, compares with
+        ForecastRowFormatter.Settings tomorrow = new ForecastRowFormatter.Settings(
+                settings.metric, settings.locale, settings.gmtOffset, settings.julianDay + 1);
+        assertFalse("Error: rows from yesterday are not stale", settings.equals(tomorrow));
+        Locale otherLocale = Locale.GERMAN.equals(settings.locale) ? Locale.FRENCH
+                : Locale.GERMAN;
+        ForecastRowFormatter.Settings translated = new ForecastRowFormatter.Settings(
+                settings.metric, otherLocale, settings.gmtOffset, settings.julianDay);
+        assertFalse("Error: rows in another language are not stale",
+                settings.equals(translated));
+    }
+
+    private static Updates diff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        Updates updates = new Updates();
+        DiffUtil.calculateDiff(new ForecastLoader.RowDiff(oldRows, newRows))
+                .dispatchUpdatesTo(updates);
+        return updates;
+    }
+
+    static List<ForecastRow> createRows(int firstDay, int count) {
+        List<ForecastRow> rows = new ArrayList<>();
+        for (int day = firstDay; day < firstDay + count; day++) {
+            String high = (20 + day) + "°";
+            String low = (10 + day) + "°";
+            rows.add(new ForecastRow(TEST_DATE + day * DAY_MS, 800, "Day " + day,
+                    "Today, day " + day, "Clear", high, low, "Forecast: Clear", "High: " + high,
+                    "Low: " + low, null));
+        }
+        return rows;
+    }
+
+    static class Updates implements ListUpdateCallback {
+        int inserted;
+        int removed;
+        int moved;
+        int changed;
+        private final StringBuilder mLog = new StringBuilder();
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+            mLog.append("inserted ").append(position).append('+').append(count).append(' ');
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+            mLog.append("removed ").append(position).append('+').append(count).append(' ');
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+            mLog.append("moved ").append(fromPosition).append('>').append(toPosition).append(' ');
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+            mLog.append("changed ").append(position).append('+').append(count).append(' ');
+        }
+
+        @Override
+        public String toString() {
+            return mLog.toString();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Runs a writer that keeps rewriting a year of forecast in large transactions, the way the
+    sync adapter does, alongside several threads querying the forecast like the loaders, the
+    widget and the wearable service.  Reader latency is logged for the rollback journal and for
+    write-ahead logging.
+ */
+public class TestDbConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    static final String TEST_DATABASE_NAME = "weather-concurrency-test.db";
+
+    static final int READER_THREADS = 8;
+    static final int ROWS_PER_TRANSACTION = 365;
+    static final long RUN_MILLIS = 3000;
+    static final int MAX_SAMPLES_PER_READER = 100000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReaderLatencyUnderWrites() throws Throwable {
+        long[] journal = runWorkload(false);
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        long[] wal = runWorkload(true);
+
+        logPercentiles("Rollback journal", journal);
+        logPercentiles("Write-ahead log", wal);
+
+        assertTrue("Error: readers made no progress with the rollback journal", journal.length > 0);
+        assertTrue("Error: readers made no progress with write-ahead logging", wal.length > 0);
+
+        // WAL is only turned on from Jelly Bean; below that both runs use the journal
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertTrue("Error: p99 reader latency with WAL (" + percentile(wal, 99) +
+                            " us) is worse than with the rollback journal (" +
+                            percentile(journal, 99) + " us)",
+                    percentile(wal, 99) <= percentile(journal, 99));
+        }
+    }
+
+    /**
+     * @return every reader's query latency in microseconds, sorted
+     */
+    private long[] runWorkload(boolean writeAheadLogging) throws Throwable {
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME,
+                writeAheadLogging, 1000, true);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN,
+                dbHelper.isWriteAheadLogging());
+
+        final long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        writeForecast(db, locationRowId, 0);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread writer = new Thread("TestDbConcurrency-writer") {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int pass = 1; running.get(); pass++) {
+                        writeForecast(db, locationRowId, pass);
+                        dbHelper.onBulkWriteCommitted();
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+
+        final long[][] samples = new long[READER_THREADS][MAX_SAMPLES_PER_READER];
+        final int[] sampleCounts = new int[READER_THREADS];
+        Thread[] readers = new Thread[READER_THREADS];
+        for (int r = 0; r < READER_THREADS; r++) {
+            final int reader = r;
+            readers[r] = new Thread("TestDbConcurrency-reader" + r) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        String[] selectionArgs = new String[]{Long.toString(locationRowId)};
+                        long[] latencies = samples[reader];
+                        int count = 0;
+                        while (running.get() && count < latencies.length) {
+                            long begin = System.nanoTime();
+                            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                                    WeatherEntry.COLUMN_LOC_KEY + " = ?", selectionArgs,
+                                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                            // getCount fills the window, so the query has really run
+                            cursor.getCount();
+                            cursor.close();
+                            latencies[count++] = (System.nanoTime() - begin) / 1000;
+                        }
+                        sampleCounts[reader] = count;
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        start.countDown();
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        dbHelper.close();
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        int total = 0;
+        for (int count : sampleCounts) {
+            total += count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (int r = 0; r < READER_THREADS; r++) {
+            System.arraycopy(samples[r], 0, latencies, offset, sampleCounts[r]);
+            offset += sampleCounts[r];
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void writeForecast(SQLiteDatabase db, long locationRowId, int pass) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS_PER_TRANSACTION; i++) {
+                weatherValues.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * millisecondsInADay));
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + pass % 20);
+                db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    private static void logPercentiles(String mode, long[] sorted) {
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %d reads, p50 %d us, p99 %d us, max %d us",
+                mode, sorted.length, percentile(sorted, 50), percentile(sorted, 99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+    }
+}
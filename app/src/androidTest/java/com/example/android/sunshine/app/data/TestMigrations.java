@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TreeMap;
+
+/*
+    Builds weather.db as it looked at every version we still migrate from, fills it with a
+    large forecast history and upgrades it to the current version, checking that no data is
+    lost and that the result is the same schema a fresh install gets.
+
+    When you bump WeatherDbHelper.DATABASE_VERSION, add the new schema to HISTORICAL_SCHEMAS
+    exactly as onCreate now builds it.  testLatestFrozenSchemaMatchesOnCreate fails until you do.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    static final String TEST_DATABASE_NAME = "weather-migration-test.db";
+    static final String FRESH_DATABASE_NAME = "weather-migration-fresh.db";
+
+    static final int TEST_LOCATIONS = 20;
+    static final int TEST_DAYS = 500;
+
+    static final String SCHEMA_2_LOCATION =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+    static final String SCHEMA_2_WEATHER =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    // HISTORICAL_SCHEMAS[i] creates version OLDEST_MIGRATABLE_VERSION + i, frozen as it shipped
+    static final String[][] HISTORICAL_SCHEMAS = {
+            // 2
+            {SCHEMA_2_LOCATION, SCHEMA_2_WEATHER},
+            // 3: covering index for the location/date queries
+            {SCHEMA_2_LOCATION, SCHEMA_2_WEATHER,
+                    "CREATE INDEX weather_location_date_idx ON weather " +
+                            "(location_id, date, weather_id, short_desc, max, min);"},
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestDatabases();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestDatabases();
+        super.tearDown();
+    }
+
+    private void deleteTestDatabases() {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    public void testLatestFrozenSchemaMatchesOnCreate() {
+        assertEquals("Error: HISTORICAL_SCHEMAS must end with the current database version",
+                WeatherDbHelper.DATABASE_VERSION,
+                WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + HISTORICAL_SCHEMAS.length - 1);
+
+        SQLiteDatabase frozen = createHistoricalDatabase(WeatherDbHelper.DATABASE_VERSION);
+        String frozenSchema = describeSchema(frozen);
+        frozen.close();
+
+        assertEquals("Error: onCreate no longer matches the frozen schema of version " +
+                WeatherDbHelper.DATABASE_VERSION, frozenSchema, freshSchema());
+    }
+
+    // Each step on its own turns version N into exactly the frozen version N + 1
+    public void testEachUpgradeStep() {
+        for (int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            SQLiteDatabase db = createHistoricalDatabase(version);
+            WeatherDbHelper.upgradeTo(db, version + 1);
+            String upgraded = describeSchema(db);
+            db.close();
+            mContext.deleteDatabase(TEST_DATABASE_NAME);
+
+            db = createHistoricalDatabase(version + 1);
+            String expected = describeSchema(db);
+            db.close();
+            mContext.deleteDatabase(TEST_DATABASE_NAME);
+
+            assertEquals("Error: upgrading " + version + " to " + (version + 1) +
+                    " gave the wrong schema", expected, upgraded);
+        }
+    }
+
+    // Every historical version, full of data, opened by the current helper
+    public void testUpgradeEveryVersionToHead() {
+        String freshSchema = freshSchema();
+        for (int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            SQLiteDatabase db = createHistoricalDatabase(version);
+            fillDatabase(db);
+            db.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME,
+                    false, 1000, true);
+            long start = SystemClock.elapsedRealtime();
+            db = dbHelper.getWritableDatabase();
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            Log.i(LOG_TAG, "Upgraded version " + version + " to " +
+                    WeatherDbHelper.DATABASE_VERSION + " with " + TEST_LOCATIONS * TEST_DAYS +
+                    " weather rows in " + elapsed + " ms");
+
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrading from " + version + " lost locations",
+                    TEST_LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: upgrading from " + version + " lost weather",
+                    TEST_LOCATIONS * TEST_DAYS,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = 1 AND " + WeatherEntry.COLUMN_DATE + " = 7",
+                    null, null, null, null);
+            TestUtilities.validateCursor("Error: upgrading from " + version + " changed a row",
+                    cursor, weatherValues(1, 7));
+            assertEquals("Error: upgrading from " + version + " gave the wrong schema",
+                    freshSchema, describeSchema(db));
+
+            dbHelper.close();
+            mContext.deleteDatabase(TEST_DATABASE_NAME);
+        }
+    }
+
+    // Anything older than the first migratable version is thrown away and rebuilt
+    public void testUnmigratableVersionIsRebuilt() {
+        SQLiteDatabase db = createHistoricalDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION);
+        fillDatabase(db);
+        db.setVersion(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME,
+                false, 1000, true);
+        db = dbHelper.getWritableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertEquals(freshSchema(), describeSchema(db));
+        dbHelper.close();
+    }
+
+    private SQLiteDatabase createHistoricalDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(TEST_DATABASE_NAME), null);
+        for (String sql : HISTORICAL_SCHEMAS[version - WeatherDbHelper.OLDEST_MIGRATABLE_VERSION]) {
+            db.execSQL(sql);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    private String freshSchema() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME,
+                false, 1000, true);
+        String schema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+        return schema;
+    }
+
+    /*
+        Uses only the columns every schema version so far has had, so it works at any version.
+     */
+    private static void fillDatabase(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= TEST_LOCATIONS; location++) {
+                db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, " +
+                        "coord_long) VALUES (?, ?, 'North Pole', 64.7488, -147.353)",
+                        new Object[]{location, "location" + location});
+            }
+            SQLiteStatement insert = db.compileStatement("INSERT INTO weather (location_id, " +
+                    "date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int location = 1; location <= TEST_LOCATIONS; location++) {
+                for (int day = 0; day < TEST_DAYS; day++) {
+                    ContentValues values = weatherValues(location, day);
+                    insert.bindLong(1, location);
+                    insert.bindLong(2, day);
+                    insert.bindString(3, values.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+                    insert.bindLong(4, values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+                    insert.bindDouble(5, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+                    insert.bindDouble(6, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+                    insert.bindDouble(7, values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY));
+                    insert.bindDouble(8, values.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+                    insert.bindDouble(9, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+                    insert.bindDouble(10, values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+                    insert.executeInsert();
+                }
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    static ContentValues weatherValues(long locationRowId, long day) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, day);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 20);
+        return values;
+    }
+
+    /*
+        A textual description of every table (columns and their types, constraints and keys)
+        and every index (columns, uniqueness), sorted by name.  SQL text is not compared, since
+        the same schema can be written in many ways.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND " +
+                "name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY name", null);
+        while (tables.moveToNext()) {
+            String table = tables.getString(0);
+            schema.append("table ").append(table).append('\n');
+            appendPragma(schema, db, "table_info(" + table + ")",
+                    "name", "type", "notnull", "dflt_value", "pk");
+
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            TreeMap<String, String> sorted = new TreeMap<>();
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndexOrThrow("name"));
+                StringBuilder description = new StringBuilder("  index ")
+                        .append(index.startsWith("sqlite_autoindex_") ? "(auto)" : index)
+                        .append(" unique=")
+                        .append(indexes.getInt(indexes.getColumnIndexOrThrow("unique")))
+                        .append('\n');
+                appendPragma(description, db, "index_info(" + index + ")", "seqno", "name");
+                sorted.put(description.toString(), index);
+            }
+            indexes.close();
+            for (String description : sorted.keySet()) {
+                schema.append(description);
+            }
+        }
+        tables.close();
+        return schema.toString();
+    }
+
+    private static void appendPragma(StringBuilder out, SQLiteDatabase db, String pragma,
+                                     String... columns) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        while (cursor.moveToNext()) {
+            out.append("    ");
+            for (String column : columns) {
+                out.append(column).append('=')
+                        .append(cursor.getString(cursor.getColumnIndexOrThrow(column))).append(' ');
+            }
+            out.append('\n');
+        }
+        cursor.close();
+    }
+}
@@ -24,12 +24,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +515,172 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Re-sending rows the provider already holds must not rewrite them or wake up observers,
+    // and changed rows must be updated in place so their _ID stays the same.
+    public void testBulkInsertSkipsUnchangedRows() throws Throwable {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] ids = readWeatherIds();
+
+        // The same forecast again: nothing changed, so nothing is written or notified
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, createBulkInsertWeatherValues(locationRowId));
+        Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        // bulkInsert still counts every row it was given, as its contract says
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.CONTENT_URI, createBulkInsertWeatherValues(locationRowId)));
+
+        Thread.sleep(500);
+        assertFalse("Error: observers were notified although no weather row changed",
+                weatherObserver.mContentChanged);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+
+        // Change one day: only that row is updated, in place
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, changedValues);
+        counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_UPSERT, null, extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(1, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        assertTrue("Error: updating rows changed their _ID", Arrays.equals(ids, readWeatherIds()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(ids[3])},
+                null
+        );
+        TestUtilities.validateCursor("testBulkInsertSkipsUnchangedRows.  Error validating updated row.",
+                cursor, changedValues[3]);
+    }
+
+    static private final int THROUGHPUT_LOCATIONS = 50;
+    static private final int THROUGHPUT_DAYS = 400;
+
+    /*
+        Times a large bulkInsert (tens of thousands of rows) against the straightforward
+        approach of calling SQLiteDatabase.insert for every row inside one transaction.  The
+        rates are logged so they can be compared across devices.
+     */
+    public void testBulkInsertThroughput() {
+        ContentValues[][] values = new ContentValues[THROUGHPUT_LOCATIONS][];
+        for (int l = 0; l < THROUGHPUT_LOCATIONS; l++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "throughput" + l);
+            long locationRowId = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+            values[l] = createThroughputWeatherValues(locationRowId);
+        }
+        int totalRows = THROUGHPUT_LOCATIONS * THROUGHPUT_DAYS;
+
+        // Baseline: one ContentValues insert per row
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (ContentValues[] locationValues : values) {
+                for (ContentValues value : locationValues) {
+                    value.put(WeatherEntry.COLUMN_DATE,
+                            WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                    db.insert(WeatherEntry.TABLE_NAME, null, value);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long baselineNanos = System.nanoTime() - start;
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.close();
+
+        // Provider bulkInsert, one call per location like the sync adapter does
+        int insertCount = 0;
+        start = System.nanoTime();
+        for (ContentValues[] locationValues : values) {
+            insertCount += mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    locationValues);
+        }
+        long bulkNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Per row insert: " + rowsPerSecond(totalRows, baselineNanos) + " rows/s");
+        Log.i(LOG_TAG, "bulkInsert: " + rowsPerSecond(totalRows, bulkNanos) + " rows/s");
+
+        assertEquals(totalRows, insertCount);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                null
+        );
+        assertEquals(totalRows, cursor.getCount());
+        cursor.close();
+
+        // Sending everything again must not write anything, though every row is counted
+        start = System.nanoTime();
+        for (ContentValues[] locationValues : values) {
+            assertEquals(locationValues.length, mContext.getContentResolver().bulkInsert(
+                    WeatherEntry.CONTENT_URI, locationValues));
+        }
+        Log.i(LOG_TAG, "bulkInsert, unchanged: " +
+                rowsPerSecond(totalRows, System.nanoTime() - start) + " rows/s");
+    }
+
+    static ContentValues[] createThroughputWeatherValues(long locationRowId) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] returnContentValues = new ContentValues[THROUGHPUT_DAYS];
+        for (int i = 0; i < THROUGHPUT_DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * millisecondsInADay);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 20);
+            returnContentValues[i] = weatherValues;
+        }
+        return returnContentValues;
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private long[] readWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Asks SQLite how it would run each query the provider issues, and fails if any of them
+    scans a whole table instead of searching an index.  Forecast history grows with every
+    location, so a scan that is harmless in a fresh install gets slower every day.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String TEST_DATE = Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+
+    // The columns the forecast list, the widgets and Muzei ask for
+    static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testWeatherIndexExists() {
+        Cursor c = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the weather location/date index was not created", c.moveToFirst());
+        c.close();
+    }
+
+    // content://.../weather/<location>
+    public void testWeatherWithLocationPlan() {
+        assertSearchesIndexes("weather/*",
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(FORECAST_COLUMNS,
+                        WeatherProvider.sLocationSettingSelection, null, null, SORT_BY_DATE, null),
+                new String[]{TEST_LOCATION});
+    }
+
+    // content://.../weather/<location>?date=<start>
+    public void testWeatherWithLocationAndStartDatePlan() {
+        assertSearchesIndexes("weather/*?date=",
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(FORECAST_COLUMNS,
+                        WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                        SORT_BY_DATE, null),
+                new String[]{TEST_LOCATION, TEST_DATE});
+    }
+
+    // content://.../weather/<location>/<date>, with every column like the detail screen
+    public void testWeatherWithLocationAndDatePlan() {
+        assertSearchesIndexes("weather/*/#",
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null),
+                new String[]{TEST_LOCATION, TEST_DATE});
+    }
+
+    // content://.../location, looked up by setting when a sync stores a forecast
+    public void testLocationBySettingPlan() {
+        assertSearchesIndexes("location",
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry._ID},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null),
+                new String[]{TEST_LOCATION});
+    }
+
+    // The lookup bulkInsert makes for every row it upserts
+    public void testWeatherByDateAndLocationPlan() {
+        assertSearchesIndexes("weather upsert",
+                "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + WeatherEntry.COLUMN_MAX_TEMP +
+                        " = 1 WHERE " + WeatherEntry.COLUMN_DATE + " = ? AND " +
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{TEST_DATE, "1"});
+    }
+
+    // The sync adapter's delete of past days
+    public void testDeleteOldWeatherPlan() {
+        assertSearchesIndexes("weather delete",
+                "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                        WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{TEST_DATE});
+    }
+
+    private void assertSearchesIndexes(String name, String sql, String[] args) {
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = c.getColumnIndexOrThrow("detail");
+        StringBuilder plan = new StringBuilder();
+        while (c.moveToNext()) {
+            plan.append("\n  ").append(c.getString(detailIndex));
+        }
+        c.close();
+
+        assertTrue("Error: no query plan for " + name, plan.length() > 0);
+        String details = plan.toString();
+        // Older SQLite says "SCAN TABLE weather", newer says "SCAN weather"; either way, and
+        // whether or not the scan walks an index, it visits every row
+        assertFalse("Error: " + name + " scans a whole table:" + details,
+                details.contains("\n  SCAN "));
+        assertFalse("Error: " + name + " needs an automatic index:" + details,
+                details.contains("AUTOMATIC"));
+        assertFalse("Error: " + name + " sorts in a temporary b-tree:" + details,
+                details.contains("TEMP B-TREE"));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.Arrays;
+
+public class TestConditionalSync extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+
+    // How long to wait for a change notification that should never come
+    static final long QUIET_PERIOD_MS = 1000;
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        new ForecastResponseCache(mContext).clear();
+
+        mServer = new StubHttpServer();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        new ForecastResponseCache(mContext).clear();
+        super.tearDown();
+    }
+
+    public void testNotModifiedSkipsProviderWrites() throws Throwable {
+        byte[] body = TestForecastJsonParser.createForecastJson(14).getBytes("UTF-8");
+        mServer.setResponse(body, "\"v1\"");
+        Uri forecastUri = mServer.getUri(FORECAST_PATH);
+
+        // First sync downloads and stores everything
+        mSyncAdapter.syncLocation(forecastUri, TEST_LOCATION);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(body.length, mServer.getBodyBytesServed());
+        long[] firstIds = readWeatherIds();
+        assertEquals("Error: first sync should have stored the forecast", 14, firstIds.length);
+
+        // Second sync is answered with a 304, so nothing may be written
+        CountingObserver observer = CountingObserver.register(mContext);
+        mSyncAdapter.syncLocation(forecastUri, TEST_LOCATION);
+        Thread.sleep(QUIET_PERIOD_MS);
+        observer.unregister(mContext);
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("Error: unchanged forecast should be revalidated, not downloaded",
+                1, mServer.getNotModifiedCount());
+        assertEquals(body.length, mServer.getBodyBytesServed());
+        assertEquals("Error: provider was notified for an unchanged forecast",
+                0, observer.getChangeCount());
+        assertTrue("Error: rows were rewritten for an unchanged forecast",
+                Arrays.equals(firstIds, readWeatherIds()));
+
+        // Once the forecast changes upstream it is downloaded and stored again
+        mServer.setResponse(TestForecastJsonParser.createForecastJson(14)
+                .replace("\"Rain\"", "\"Drizzle\"").getBytes("UTF-8"), "\"v2\"");
+        observer = CountingObserver.register(mContext);
+        mSyncAdapter.syncLocation(forecastUri, TEST_LOCATION);
+        Thread.sleep(QUIET_PERIOD_MS);
+        observer.unregister(mContext);
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertTrue("Error: changed forecast should notify observers",
+                observer.getChangeCount() > 0);
+    }
+
+    public void testNotModifiedReplaysCachedBodyWhenDatabaseIsEmpty() throws Throwable {
+        byte[] body = TestForecastJsonParser.createForecastJson(14).getBytes("UTF-8");
+        mServer.setResponse(body, "\"v1\"");
+        Uri forecastUri = mServer.getUri(FORECAST_PATH);
+
+        mSyncAdapter.syncLocation(forecastUri, TEST_LOCATION);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        mSyncAdapter.syncLocation(forecastUri, TEST_LOCATION);
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(body.length, mServer.getBodyBytesServed());
+        assertEquals("Error: cached body was not replayed into the empty database",
+                14, readWeatherIds().length);
+    }
+
+    private long[] readWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /*
+        Counts every change notification on the weather URI.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        volatile int mChangeCount;
+
+        static CountingObserver register(Context context) {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            CountingObserver observer = new CountingObserver(ht);
+            context.getContentResolver().registerContentObserver(
+                    WeatherEntry.CONTENT_URI, true, observer);
+            return observer;
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount++;
+        }
+
+        int getChangeCount() {
+            return mChangeCount;
+        }
+
+        void unregister(Context context) {
+            context.getContentResolver().unregisterContentObserver(this);
+            mHT.quit();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    static final int TEST_JULIAN_DAY = 2457012;  // December 20th, 2014
+    static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        Builds a response shaped like the OWM daily forecast, with the given number of days.
+     */
+    static String createForecastJson(int days) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0112,\"cnt\":").append(days)
+                .append(",\"list\":[\n");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) sb.append(",\n");
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":15.5,\"min\":%.2f,\"max\":%.2f,\"night\":8.1," +
+                            "\"eve\":12.3,\"morn\":9.9},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Rain\",\"description\":\"light rain\"," +
+                            "\"icon\":\"10d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":20,\"rain\":0.5}",
+                    1419033600L + i * 86400L, 5.0 + i, 18.0 + i, 1010.0 + i, 60 + i,
+                    500 + (i % 5), 2.5 + 0.1 * i, (i * 30) % 360));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    public void testStreamingMatchesJsonObject() throws Throwable {
+        String json = createForecastJson(14);
+
+        ForecastJsonParser expected = ForecastJsonParser.parse(json, TEST_JULIAN_DAY);
+        ForecastJsonParser actual = ForecastJsonParser.parse(
+                new InputStreamReader(new ByteArrayInputStream(json.getBytes("UTF-8")), "UTF-8"),
+                TEST_JULIAN_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, actual.messageCode);
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.cityLatitude, actual.cityLatitude);
+        assertEquals(expected.cityLongitude, actual.cityLongitude);
+        assertEquals(14, actual.rows.size());
+        assertEquals(expected.rows.size(), actual.rows.size());
+        for (int i = 0; i < expected.rows.size(); i++) {
+            ContentValues expectedRow = expected.rows.get(i);
+            ContentValues actualRow = actual.rows.get(i);
+            assertEquals("Error: row " + i + " differs between parsers",
+                    expectedRow, actualRow);
+        }
+    }
+
+    public void testStreamingErrorCode() throws Throwable {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        ForecastJsonParser forecast = ForecastJsonParser.parse(
+                new InputStreamReader(new ByteArrayInputStream(json.getBytes("UTF-8")), "UTF-8"),
+                TEST_JULIAN_DAY);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertEquals(0, forecast.rows.size());
+    }
+
+    public void testStreamingMalformed() throws Throwable {
+        String json = "{\"city\":{\"name\":\"Nowhere\",\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[{\"pressure\":";
+        try {
+            ForecastJsonParser.parse(
+                    new InputStreamReader(new ByteArrayInputStream(json.getBytes("UTF-8")), "UTF-8"),
+                    TEST_JULIAN_DAY);
+            fail("Error: truncated forecast should not parse");
+        } catch (IOException | JSONException e) {
+            // expected: a truncated stream is either a read error or an invalid forecast
+        }
+
+        json = "{\"city\":{\"name\":\"Nowhere\",\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[{\"pressure\":\"high\"}]}";
+        try {
+            ForecastJsonParser.parse(
+                    new InputStreamReader(new ByteArrayInputStream(json.getBytes("UTF-8")), "UTF-8"),
+                    TEST_JULIAN_DAY);
+            fail("Error: forecast with a non numeric pressure should not parse");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    /*
+        Compares the old sync path (read line by line into a StringBuffer, then build a JSONObject
+        tree) with the streaming one.  Numbers are logged so they can be compared across devices;
+        the assertion only checks that streaming allocates less.
+     */
+    @SuppressWarnings("deprecation")
+    public void testParseBenchmark() throws Throwable {
+        byte[] body = createForecastJson(14).getBytes("UTF-8");
+
+        // warm up both paths so class loading and JIT don't skew the numbers
+        for (int i = 0; i < 20; i++) {
+            parseLikeBefore(body);
+            parseStreaming(body);
+        }
+
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            parseLikeBefore(body);
+        }
+        long treeNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        long treeBytes = Debug.getThreadAllocSize();
+        long treeCount = Debug.getThreadAllocCount();
+
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            parseStreaming(body);
+        }
+        long streamNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        long streamBytes = Debug.getThreadAllocSize();
+        long streamCount = Debug.getThreadAllocCount();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "JSONObject: %d us/parse, %d bytes/parse, %d allocs/parse",
+                treeNanos / 1000 / BENCHMARK_ITERATIONS,
+                treeBytes / BENCHMARK_ITERATIONS, treeCount / BENCHMARK_ITERATIONS));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "JsonReader: %d us/parse, %d bytes/parse, %d allocs/parse",
+                streamNanos / 1000 / BENCHMARK_ITERATIONS,
+                streamBytes / BENCHMARK_ITERATIONS, streamCount / BENCHMARK_ITERATIONS));
+
+        // Allocation counting is not supported on every runtime; only compare when it is
+        if (treeBytes > 0) {
+            assertTrue("Error: streaming parse allocated " + streamBytes +
+                    " bytes, JSONObject parse " + treeBytes, streamBytes < treeBytes);
+        }
+    }
+
+    private static ForecastJsonParser parseLikeBefore(byte[] body)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body)));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+        return ForecastJsonParser.parse(buffer.toString(), TEST_JULIAN_DAY);
+    }
+
+    private static ForecastJsonParser parseStreaming(byte[] body)
+            throws IOException, JSONException {
+        InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(body), "UTF-8");
+        ForecastJsonParser forecast = ForecastJsonParser.parse(reader, TEST_JULIAN_DAY);
+        reader.close();
+        return forecast;
+    }
+}
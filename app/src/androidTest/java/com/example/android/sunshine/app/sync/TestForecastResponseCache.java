@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test_forecast"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    public void testRecordedResponseIsCurrentOnlyOnceCommitted() throws IOException {
+        ForecastResponseCache.Pending first = recordResponse("\"v1\"", "first");
+        assertNull("Error: a response was cached before it was committed",
+                mCache.get(TEST_LOCATION));
+        first.commit();
+        assertEquals("\"v1\"", mCache.get(TEST_LOCATION).etag);
+
+        // The forecast couldn't be stored; the old validators and body stay current
+        recordResponse("\"v2\"", "second").discard();
+        ForecastResponseCache.Entry entry = mCache.get(TEST_LOCATION);
+        assertEquals("Error: \"v2\" was used before its forecast was stored",
+                "\"v1\"", entry.etag);
+        assertEquals("first", readBody(entry));
+
+        // The same if the process dies before the forecast is stored
+        recordResponse("\"v3\"", "third");
+        assertEquals("\"v1\"", mCache.get(TEST_LOCATION).etag);
+
+        recordResponse("\"v4\"", "fourth").commit();
+        entry = mCache.get(TEST_LOCATION);
+        assertEquals("\"v4\"", entry.etag);
+        assertEquals("fourth", readBody(entry));
+    }
+
+    private ForecastResponseCache.Pending recordResponse(String etag, String body)
+            throws IOException {
+        InputStream in = mCache.record(TEST_LOCATION, new FakeConnection(etag),
+                new ByteArrayInputStream(body.getBytes("UTF-8")), 2457000);
+        try {
+            ForecastResponseCache.Pending pending = mCache.finish(in);
+            assertNotNull(pending);
+            return pending;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readBody(ForecastResponseCache.Entry entry) throws IOException {
+        InputStream in = entry.openBody();
+        try {
+            byte[] buffer = new byte[(int) entry.body.length()];
+            int read = 0;
+            while (read < buffer.length) {
+                read += in.read(buffer, read, buffer.length - read);
+            }
+            return new String(buffer, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+        Only answers the header lookups ForecastResponseCache.record makes.
+     */
+    static class FakeConnection extends HttpURLConnection {
+        private final String mEtag;
+
+        FakeConnection(String etag) throws IOException {
+            super(new URL("http://localhost/"));
+            mEtag = etag;
+        }
+
+        @Override
+        public String getHeaderField(String key) {
+            return "ETag".equals(key) ? mEtag : null;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestParallelSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestParallelSync.class.getSimpleName();
+
+    static final int TEST_LOCATIONS = 20;
+    static final int TEST_DAYS = 14;
+
+    // Added to every response, standing in for a slow network
+    static final long LATENCY_MS = 250;
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private Uri mForecastUri;
+    private List<String> mLocations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteForecasts();
+        new ForecastResponseCache(mContext).clear();
+
+        mServer = new SlowStubHttpServer();
+        // No ETag, so every sync downloads every location again
+        mServer.setResponse(TestForecastJsonParser.createForecastJson(TEST_DAYS).getBytes("UTF-8"),
+                null);
+        mForecastUri = mServer.getUri(TestConditionalSync.FORECAST_PATH);
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+
+        mLocations = new ArrayList<>(TEST_LOCATIONS);
+        for (int i = 0; i < TEST_LOCATIONS; i++) {
+            mLocations.add("9970" + i);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteForecasts();
+        super.tearDown();
+    }
+
+    private void deleteForecasts() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testSyncStoresEveryLocationWithOneNotification() throws Throwable {
+        mSyncAdapter.setMaxConcurrentFetches(4);
+
+        TestConditionalSync.CountingObserver observer =
+                TestConditionalSync.CountingObserver.register(mContext);
+        mSyncAdapter.syncLocations(mForecastUri, mLocations);
+        Thread.sleep(TestConditionalSync.QUIET_PERIOD_MS);
+        observer.unregister(mContext);
+
+        assertEquals(TEST_LOCATIONS, mServer.getRequestCount());
+        assertEquals("Error: a sync should notify weather observers once",
+                1, observer.getChangeCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, new String[]{WeatherEntry._ID}, null, null, null);
+        assertEquals(TEST_LOCATIONS * TEST_DAYS, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID}, null, null, null);
+        assertEquals(TEST_LOCATIONS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFailedFetchKeepsTheOthers() throws Throwable {
+        mSyncAdapter.setMaxConcurrentFetches(4);
+        // With an ETag every successful fetch records its body, to commit once it is stored
+        mServer.setResponse(TestForecastJsonParser.createForecastJson(TEST_DAYS).getBytes("UTF-8"),
+                "\"v1\"");
+        List<String> locations = new ArrayList<>(mLocations.subList(0, 3));
+        // A null location can't be named in the response cache, so its fetch throws
+        locations.add(1, null);
+
+        mSyncAdapter.syncLocations(mForecastUri, locations);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID}, null, null, null);
+        assertEquals("Error: a failed fetch kept the other locations from being stored",
+                3, cursor.getCount());
+        cursor.close();
+
+        // The ForecastResponseCache directory
+        File[] files = new File(mContext.getCacheDir(), "forecast").listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse("Error: " + file + " was left behind", file.getName().endsWith(".tmp"));
+        }
+    }
+
+    /*
+        With N fetches in flight the sync should take about TEST_LOCATIONS / N round trips,
+        not TEST_LOCATIONS of them.
+     */
+    public void testSyncTimeScalesWithConcurrency() throws Throwable {
+        int[] limits = {1, 4, 10};
+        long[] elapsed = new long[limits.length];
+        for (int i = 0; i < limits.length; i++) {
+            deleteForecasts();
+            mSyncAdapter.setMaxConcurrentFetches(limits[i]);
+
+            long start = SystemClock.elapsedRealtime();
+            mSyncAdapter.syncLocations(mForecastUri, mLocations);
+            elapsed[i] = SystemClock.elapsedRealtime() - start;
+
+            long rounds = (TEST_LOCATIONS + limits[i] - 1) / limits[i];
+            Log.i(LOG_TAG, TEST_LOCATIONS + " locations, " + limits[i] + " at a time: " +
+                    elapsed[i] + " ms (" + rounds * LATENCY_MS + " ms of latency)");
+
+            assertTrue("Error: " + limits[i] + " concurrent fetches finished in " + elapsed[i] +
+                            " ms, faster than the limit allows",
+                    elapsed[i] >= rounds * LATENCY_MS);
+        }
+
+        // Going from 1 to 10 concurrent fetches cuts the latency tenfold; allow for the
+        // parsing and the database write, which don't shrink
+        assertTrue("Error: 10 concurrent fetches took " + elapsed[2] + " ms, 1 at a time took " +
+                elapsed[0] + " ms", elapsed[2] * 4 < elapsed[0]);
+        assertTrue("Error: 4 concurrent fetches took " + elapsed[1] + " ms, 1 at a time took " +
+                elapsed[0] + " ms", elapsed[1] * 2 < elapsed[0]);
+    }
+
+    static class SlowStubHttpServer extends StubHttpServer {
+        SlowStubHttpServer() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void beforeResponse(String requestLine) {
+            SystemClock.sleep(LATENCY_MS);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tiny HTTP/1.0 server on the loopback interface that serves one canned body.  It honours
+ * <code>If-None-Match</code> against the configured ETag so conditional requests can be tested,
+ * and counts requests and body bytes served.
+ */
+public class StubHttpServer {
+    private static final String LOG_TAG = StubHttpServer.class.getSimpleName();
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+
+    private volatile byte[] mBody = new byte[0];
+    private volatile String mEtag;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicLong mBodyBytesServed = new AtomicLong();
+
+    public StubHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("StubHttpServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = mServerSocket.accept();
+                    } catch (IOException e) {
+                        // closed
+                        return;
+                    }
+                    new Thread("StubHttpServer-connection") {
+                        @Override
+                        public void run() {
+                            handle(socket);
+                        }
+                    }.start();
+                }
+            }
+        };
+        mAcceptThread.start();
+    }
+
+    /**
+     * @param path the path the client will ask for; the server answers any path
+     */
+    public Uri getUri(String path) {
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    public void setResponse(byte[] body, String etag) {
+        mBody = body;
+        mEtag = etag;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public long getBodyBytesServed() {
+        return mBodyBytesServed.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+    }
+
+    /**
+     * Hook for subclasses, called on the connection thread before the response is written.
+     */
+    protected void beforeResponse(String requestLine) {
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            mRequestCount.incrementAndGet();
+            beforeResponse(requestLine);
+
+            byte[] body = mBody;
+            String etag = mEtag;
+            OutputStream out = socket.getOutputStream();
+            if (etag != null && etag.equals(headers.get("if-none-match"))) {
+                mNotModifiedCount.incrementAndGet();
+                out.write(("HTTP/1.0 304 Not Modified\r\n" +
+                        "ETag: " + etag + "\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("ISO-8859-1"));
+            } else {
+                StringBuilder head = new StringBuilder("HTTP/1.0 200 OK\r\n")
+                        .append("Content-Type: application/json; charset=utf-8\r\n")
+                        .append("Content-Length: ").append(body.length).append("\r\n")
+                        .append("Connection: close\r\n");
+                if (etag != null) {
+                    head.append("ETag: ").append(etag).append("\r\n");
+                }
+                head.append("\r\n");
+                out.write(head.toString().getBytes("ISO-8859-1"));
+                out.write(body);
+                mBodyBytesServed.addAndGet(body.length);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error serving request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing socket", e);
+            }
+        }
+    }
+}
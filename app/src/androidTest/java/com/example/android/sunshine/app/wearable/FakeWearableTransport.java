@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    A WearableTransport that keeps what it is asked to send in memory, per node, until a test
+    takes it.  connect and disconnect stand in for the NodeListener callbacks.
+ */
+class FakeWearableTransport implements WearableTransport {
+
+    private final Map<String, List<byte[]>> mOutbox = new LinkedHashMap<>();
+
+    int batchesSent;
+    int messagesSent;
+    int bytesSent;
+
+    void connect(String nodeId) {
+        if (!mOutbox.containsKey(nodeId)) {
+            mOutbox.put(nodeId, new ArrayList<byte[]>());
+        }
+    }
+
+    void disconnect(String nodeId) {
+        mOutbox.remove(nodeId);
+    }
+
+    /**
+     * @return the messages sent to the node since the last call, oldest first
+     */
+    List<byte[]> take(String nodeId) {
+        List<byte[]> messages = mOutbox.get(nodeId);
+        List<byte[]> taken = new ArrayList<>(messages);
+        messages.clear();
+        return taken;
+    }
+
+    void resetCounts() {
+        batchesSent = 0;
+        messagesSent = 0;
+        bytesSent = 0;
+    }
+
+    @Override
+    public List<String> getConnectedNodes() {
+        return new ArrayList<>(mOutbox.keySet());
+    }
+
+    @Override
+    public int sendMessages(String path, Map<String, byte[]> messages) {
+        batchesSent++;
+        int sent = 0;
+        for (Map.Entry<String, byte[]> message : messages.entrySet()) {
+            List<byte[]> outbox = mOutbox.get(message.getKey());
+            if (outbox == null) {
+                continue;
+            }
+            outbox.add(message.getValue());
+            messagesSent++;
+            bytesSent += message.getValue().length;
+            sent++;
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Runs ForecastDelivery against a fake transport and fake watches that handle updates the way
+    the watch face does, checking what crosses the link.
+ */
+public class TestForecastDelivery extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastDelivery.class.getSimpleName();
+
+    private FakeWearableTransport mTransport;
+    private ForecastDelivery mDelivery;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTransport = new FakeWearableTransport();
+        mDelivery = new ForecastDelivery(mTransport);
+    }
+
+    public void testUnchangedForecastIsNotSentAgain() throws IOException {
+        FakeWatch watch = connect("watch");
+        byte[] message = createMessage(8.2);
+
+        mDelivery.setMessage(message);
+        assertTrue(mDelivery.deliver());
+        assertEquals(1, mTransport.messagesSent);
+        exchange(watch);
+        assertTrue(Arrays.equals(message, watch.held));
+
+        // A sync that changed nothing
+        mTransport.resetCounts();
+        mDelivery.setMessage(createMessage(8.2));
+        assertFalse(mDelivery.deliver());
+        assertEquals(0, mTransport.messagesSent);
+
+        // The watch acknowledges again
+        mDelivery.onStatus(watch.id, watch.status(false));
+        assertFalse(mDelivery.deliver());
+        assertEquals(0, mTransport.messagesSent);
+    }
+
+    public void testRequestWhileCurrentIsConfirmed() throws IOException {
+        FakeWatch watch = connect("watch");
+        byte[] message = createMessage(8.2);
+        mDelivery.setMessage(message);
+        mDelivery.deliver();
+        exchange(watch);
+
+        // The watch asks while holding the current forecast, e.g. because its cache is old
+        mTransport.resetCounts();
+        mDelivery.onStatus(watch.id, watch.status(true));
+        mDelivery.setMessage(createMessage(8.2));
+        assertFalse("Error: a confirmation alone waits for an acknowledgement",
+                mDelivery.deliver());
+        List<byte[]> sent = mTransport.take(watch.id);
+        assertEquals(1, sent.size());
+        ForecastUpdate confirmation = ForecastUpdate.decode(sent.get(0));
+        assertEquals(ForecastUpdate.KIND_DELTA, confirmation.kind);
+        assertEquals(ForecastUpdate.checksum(message), confirmation.checksum);
+        int fullSize = ForecastUpdate.encodeFull(0, message).length;
+        assertTrue("Error: a confirmation of " + mTransport.bytesSent + " bytes is no smaller " +
+                "than " + fullSize, mTransport.bytesSent < fullSize);
+
+        mDelivery.onStatus(watch.id, watch.receive(sent.get(0)));
+        assertEquals(1, watch.applied);
+        assertTrue(Arrays.equals(message, watch.held));
+
+        // Confirmed once per request
+        assertFalse(mDelivery.deliver());
+    }
+
+    public void testUnitsChangeReachesWatchOnRequest() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(true, 8.2));
+        mDelivery.deliver();
+        exchange(watch);
+
+        // The units were switched on the phone, with no sync since; the watch asks while still
+        // holding the last forecast pushed, and the pipeline reads the forecast again
+        mTransport.resetCounts();
+        mDelivery.onStatus(watch.id, watch.status(true));
+        byte[] message = createMessage(false, 8.2);
+        mDelivery.setMessage(message);
+        assertTrue("Error: the forecast in the new units was not sent", mDelivery.deliver());
+        List<byte[]> sent = mTransport.take(watch.id);
+        assertEquals(1, sent.size());
+        mDelivery.onStatus(watch.id, watch.receive(sent.get(0)));
+        assertTrue(Arrays.equals(message, watch.held));
+        assertFalse(ForecastMessage.decode(watch.held).metric);
+        assertFalse(mDelivery.deliver());
+    }
+
+    public void testChangedTemperatureSendsDelta() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(watch);
+
+        mTransport.resetCounts();
+        byte[] message = createMessage(9.1);
+        mDelivery.setMessage(message);
+        assertTrue(mDelivery.deliver());
+        List<byte[]> sent = mTransport.take(watch.id);
+        assertEquals(1, sent.size());
+        assertEquals(ForecastUpdate.KIND_DELTA, ForecastUpdate.decode(sent.get(0)).kind);
+
+        int fullSize = ForecastUpdate.encodeFull(0, message).length;
+        Log.i(LOG_TAG, "one temperature changed: " + mTransport.bytesSent + " bytes, " +
+                fullSize + " for the whole forecast");
+        assertTrue("Error: a delta of " + mTransport.bytesSent + " bytes is no smaller than " +
+                fullSize, mTransport.bytesSent < fullSize);
+
+        mDelivery.onStatus(watch.id, watch.receive(sent.get(0)));
+        assertTrue(Arrays.equals(message, watch.held));
+        assertFalse(mDelivery.deliver());
+    }
+
+    public void testRetriesStopWhenUpdatesAreLost() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(8.2));
+        for (int i = 0; i < ForecastDelivery.MAX_ATTEMPTS; i++) {
+            assertTrue(mDelivery.deliver());
+        }
+        assertFalse(mDelivery.deliver());
+        assertEquals(ForecastDelivery.MAX_ATTEMPTS, mTransport.messagesSent);
+        mTransport.take(watch.id);
+
+        // Once the watch asks again, it is answered
+        mDelivery.onStatus(watch.id, watch.status(true));
+        assertTrue(mDelivery.deliver());
+        exchange(watch);
+        assertTrue(Arrays.equals(createMessage(8.2), watch.held));
+    }
+
+    public void testRepeatsAreIgnoredWhenAcksAreLost() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(8.2));
+        for (int i = 0; i < ForecastDelivery.MAX_ATTEMPTS; i++) {
+            mDelivery.deliver();
+        }
+        for (byte[] update : mTransport.take(watch.id)) {
+            watch.receive(update);
+        }
+        assertEquals(1, watch.applied);
+
+        // The next status the watch sends tells the phone it has the forecast
+        mTransport.resetCounts();
+        mDelivery.onStatus(watch.id, watch.status(false));
+        assertFalse(mDelivery.deliver());
+        assertEquals(0, mTransport.messagesSent);
+    }
+
+    public void testRestartedWatchGetsWholeForecast() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(watch);
+
+        // The watch lost its cache, and asks for the forecast holding nothing
+        watch = new FakeWatch(watch.id);
+        mDelivery.onStatus(watch.id, watch.status(true));
+        byte[] message = createMessage(9.1);
+        mDelivery.setMessage(message);
+        assertTrue(mDelivery.deliver());
+        List<byte[]> sent = mTransport.take(watch.id);
+        assertEquals(ForecastUpdate.KIND_FULL, ForecastUpdate.decode(sent.get(0)).kind);
+        mDelivery.onStatus(watch.id, watch.receive(sent.get(0)));
+        assertTrue(Arrays.equals(message, watch.held));
+    }
+
+    public void testDeltaAgainstUnknownBaseIsRefused() throws IOException {
+        FakeWatch watch = connect("watch");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(watch);
+
+        // The watch was sent something else in between, e.g. by a second phone
+        FakeWatch other = new FakeWatch(watch.id);
+        other.receive(ForecastUpdate.encodeFull(1, createMessage(-3.0)));
+        // ... which the phone doesn't learn of before it sends a delta
+        mDelivery.setMessage(createMessage(9.1));
+        mDelivery.deliver();
+        ForecastUpdate.Status refusal = other.receive(mTransport.take(watch.id).get(0));
+        assertTrue("Error: a delta against the wrong forecast was applied", refusal.request);
+
+        mDelivery.onStatus(watch.id, refusal);
+        mDelivery.deliver();
+        byte[] update = mTransport.take(watch.id).get(0);
+        assertEquals(ForecastUpdate.KIND_FULL, ForecastUpdate.decode(update).kind);
+        other.receive(update);
+        assertTrue(Arrays.equals(createMessage(9.1), other.held));
+    }
+
+    public void testOnlyStaleWatchIsSent() throws IOException {
+        FakeWatch first = connect("first");
+        FakeWatch second = connect("second");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(first);
+        exchange(second);
+
+        mTransport.resetCounts();
+        second = new FakeWatch(second.id);
+        mDelivery.onStatus(second.id, second.status(true));
+        mDelivery.deliver();
+        assertEquals(0, mTransport.take(first.id).size());
+        assertEquals(1, mTransport.take(second.id).size());
+        assertEquals(1, mTransport.messagesSent);
+    }
+
+    public void testWatchesAreSentInOneBatch() throws IOException {
+        FakeWatch first = connect("first");
+        FakeWatch second = connect("second");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(first);
+        exchange(second);
+
+        // A third watch joins; each needs something different
+        FakeWatch third = connect("third");
+        mTransport.resetCounts();
+        mDelivery.setMessage(createMessage(9.1));
+        assertTrue(mDelivery.deliver());
+        assertEquals(1, mTransport.batchesSent);
+        assertEquals(3, mTransport.messagesSent);
+        assertEquals(ForecastUpdate.KIND_DELTA,
+                ForecastUpdate.decode(mTransport.take(first.id).get(0)).kind);
+        assertEquals(ForecastUpdate.KIND_FULL,
+                ForecastUpdate.decode(mTransport.take(third.id).get(0)).kind);
+    }
+
+    public void testDisconnectedWatchIsNotSent() throws IOException {
+        FakeWatch first = connect("first");
+        FakeWatch second = connect("second");
+        mTransport.disconnect(second.id);
+
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        assertEquals(1, mTransport.messagesSent);
+        exchange(first);
+
+        // It catches up when it comes back
+        mTransport.connect(second.id);
+        mTransport.resetCounts();
+        assertTrue(mDelivery.deliver());
+        assertEquals(1, mTransport.messagesSent);
+        exchange(second);
+        assertTrue(Arrays.equals(first.held, second.held));
+    }
+
+    public void testDisconnectedWatchIsForgotten() throws IOException {
+        FakeWatch first = connect("first");
+        FakeWatch second = connect("second");
+        mDelivery.setMessage(createMessage(8.2));
+        mDelivery.deliver();
+        exchange(first);
+        exchange(second);
+        assertEquals(2, mDelivery.getNodeCount());
+
+        mTransport.disconnect(second.id);
+        mDelivery.setMessage(createMessage(9.1));
+        mDelivery.deliver();
+        assertEquals("Error: state was kept for a watch that went away",
+                1, mDelivery.getNodeCount());
+    }
+
+    private FakeWatch connect(String nodeId) {
+        mTransport.connect(nodeId);
+        return new FakeWatch(nodeId);
+    }
+
+    /**
+     * Hands the watch what was sent to it, and the phone what the watch answered.
+     */
+    private void exchange(FakeWatch watch) throws IOException {
+        for (byte[] update : mTransport.take(watch.id)) {
+            mDelivery.onStatus(watch.id, watch.receive(update));
+        }
+    }
+
+    static byte[] createMessage(double firstLow) {
+        return createMessage(true, firstLow);
+    }
+
+    static byte[] createMessage(boolean metric, double firstLow) {
+        List<ForecastMessage.Day> days = TestForecastMessage.createDays(
+                TestForecastMessage.WATCH_DAYS);
+        ForecastMessage.Day first = days.get(0);
+        days.set(0, new ForecastMessage.Day(first.date, first.weatherId, first.high, firstLow));
+        return ForecastMessage.encode(metric, days);
+    }
+
+    /*
+        Handles updates as SunshineWatchFace.applyUpdate does.
+     */
+    static class FakeWatch {
+        final String id;
+        byte[] held;
+        int sequence;
+        int applied;
+
+        FakeWatch(String id) {
+            this.id = id;
+        }
+
+        ForecastUpdate.Status receive(byte[] data) throws IOException {
+            ForecastUpdate update = ForecastUpdate.decode(data);
+            if (update.checksum == ForecastUpdate.checksum(held)) {
+                return status(false);
+            }
+            if (held != null && !ForecastUpdate.isNewer(update.sequence, sequence)) {
+                return status(false);
+            }
+            try {
+                held = update.apply(held);
+            } catch (IOException e) {
+                return status(true);
+            }
+            sequence = update.sequence;
+            applied++;
+            return status(false);
+        }
+
+        /**
+         * @return the status as the phone would receive it
+         */
+        ForecastUpdate.Status status(boolean request) throws IOException {
+            return ForecastUpdate.Status.decode(new ForecastUpdate.Status(sequence,
+                    ForecastUpdate.checksum(held), request).encode());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TestForecastMessage extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastMessage.class.getSimpleName();
+
+    static final int FUZZ_ITERATIONS = 5000;
+    static final int DECODE_ITERATIONS = 2000;
+
+    // The size of the icon the phone used to send: 24dp on an xxhdpi phone
+    static final int OLD_ICON_SIZE = 72;
+
+    // The old message only ever carried one day; this carries several
+    static final int WATCH_DAYS = 3;
+
+    static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+
+    public void testRoundTrip() throws IOException {
+        byte[] data = ForecastMessage.encode(true, createDays(3));
+        assertEquals(ForecastMessage.HEADER_SIZE + 3 * ForecastMessage.DAY_SIZE, data.length);
+
+        ForecastMessage message = ForecastMessage.decode(data);
+        assertTrue(message.metric);
+        assertEquals(3, message.days.size());
+        for (int i = 0; i < 3; i++) {
+            ForecastMessage.Day day = message.days.get(i);
+            assertEquals(TEST_DATE + i * DAY_MS, day.date);
+            assertEquals(800 + i, day.weatherId);
+            assertEquals(21.5 + i, day.high, 0.01);
+            assertEquals(8.2 - i, day.low, 0.01);
+        }
+    }
+
+    public void testRoundTripBelowZero() throws IOException {
+        ForecastMessage message = ForecastMessage.decode(ForecastMessage.encode(false,
+                Collections.singletonList(new ForecastMessage.Day(0, 211, -12.3, -40.0))));
+        ForecastMessage.Day day = message.days.get(0);
+        assertEquals(211, day.weatherId);
+        assertEquals(-12.3, day.high, 0.01);
+        assertEquals(-40.0, day.low, 0.01);
+        assertFalse(message.metric);
+    }
+
+    public void testTemperaturesOutOfRangeAreClamped() throws IOException {
+        ForecastMessage message = ForecastMessage.decode(ForecastMessage.encode(true,
+                Collections.singletonList(new ForecastMessage.Day(0, 804, 1e6, -1e6))));
+        assertEquals(Short.MAX_VALUE / 10.0, message.days.get(0).high, 0.01);
+        assertEquals(Short.MIN_VALUE / 10.0, message.days.get(0).low, 0.01);
+    }
+
+    public void testOtherVersionsAreRejected() {
+        byte[] data = ForecastMessage.encode(true, createDays(1));
+        data[0] = (byte) (ForecastMessage.VERSION + 1);
+        assertDecodeFails(data);
+        data[0] = (byte) (ForecastMessage.VERSION - 1);
+        assertDecodeFails(data);
+    }
+
+    public void testDaysOutOfOrderAreRejected() {
+        List<ForecastMessage.Day> days = createDays(3);
+        Collections.reverse(days);
+        assertDecodeFails(ForecastMessage.encode(true, days));
+    }
+
+    /*
+        The watch moves on to the next day at midnight without hearing from the phone.
+     */
+    public void testDayIndex() throws IOException {
+        ForecastMessage message =
+                ForecastMessage.decode(ForecastMessage.encode(true, createDays(3)));
+        long first = TEST_DATE;
+
+        // Before the first day, e.g. a phone a time zone ahead, shows the first day
+        assertEquals(0, message.getDayIndex(first - 1));
+        assertEquals(0, message.getDayIndex(first));
+        assertEquals(0, message.getDayIndex(first + DAY_MS - 1));
+        assertEquals(1, message.getDayIndex(first + DAY_MS));
+        assertEquals(2, message.getDayIndex(first + 2 * DAY_MS + 1));
+        // Past the last day, it is the best there is
+        assertEquals(2, message.getDayIndex(first + 10 * DAY_MS));
+    }
+
+    /*
+        Whatever arrives on the message path, the watch should either get a forecast or an
+        IOException it can log, never a crash.
+     */
+    public void testFuzzedMessagesFailCleanly() {
+        Random random = new Random(42);
+        byte[] valid = ForecastMessage.encode(true, createDays(3));
+
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            // random garbage
+            byte[] garbage = new byte[random.nextInt(64)];
+            random.nextBytes(garbage);
+            decodeQuietly(garbage);
+
+            // a valid message cut short
+            decodeQuietly(Arrays.copyOf(valid, random.nextInt(valid.length)));
+
+            // a valid message with a few bytes flipped
+            byte[] mutated = valid.clone();
+            for (int j = 0; j < 3; j++) {
+                mutated[random.nextInt(mutated.length)] = (byte) random.nextInt(256);
+            }
+            decodeQuietly(mutated);
+        }
+
+        assertDecodeFails(null);
+        assertDecodeFails(Arrays.copyOf(valid, valid.length + 1));
+    }
+
+    /*
+        Compares the message with what the pipeline used to send: an ObjectOutputStream holding
+        the icon as a PNG and both formatted temperatures, for today only.
+     */
+    public void testSmallerAndFasterThanSerialization() throws Exception {
+        byte[] serialized = serialize(
+                new byte[][]{createOldIcon(), "8°".getBytes(), "21°".getBytes()});
+        byte[] compact = ForecastMessage.encode(true, createDays(WATCH_DAYS));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+        }
+        long serializedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            ForecastMessage.decode(compact);
+        }
+        long compactNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "serialized: " + serialized.length + " bytes, " +
+                serializedNanos / DECODE_ITERATIONS + " ns to decode; compact: " +
+                compact.length + " bytes, " + compactNanos / DECODE_ITERATIONS + " ns to decode");
+
+        assertTrue("Error: the message (" + compact.length + " bytes) is no smaller than " +
+                        "serialization (" + serialized.length + " bytes)",
+                compact.length < serialized.length);
+    }
+
+    static List<ForecastMessage.Day> createDays(int count) {
+        List<ForecastMessage.Day> days = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            days.add(new ForecastMessage.Day(TEST_DATE + i * DAY_MS, 800 + i,
+                    21.5 + i, 8.2 - i));
+        }
+        return days;
+    }
+
+    private byte[] createOldIcon() {
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.art_clear);
+        bitmap = Bitmap.createScaledBitmap(bitmap, OLD_ICON_SIZE, OLD_ICON_SIZE, false);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        return byteStream.toByteArray();
+    }
+
+    private static void decodeQuietly(byte[] data) {
+        try {
+            ForecastMessage.decode(data);
+        } catch (IOException e) {
+            // expected for most inputs
+        } catch (RuntimeException e) {
+            fail("Error: decoding " + Arrays.toString(data) + " threw " + e);
+        }
+    }
+
+    private static void assertDecodeFails(byte[] data) {
+        try {
+            ForecastMessage.decode(data);
+            fail("Error: decoding " + Arrays.toString(data) + " should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        ObjectOutputStream o = new ObjectOutputStream(b);
+        o.writeObject(obj);
+        o.close();
+        return b.toByteArray();
+    }
+}
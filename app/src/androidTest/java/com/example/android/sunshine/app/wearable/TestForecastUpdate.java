@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestForecastUpdate extends AndroidTestCase {
+
+    static final int FUZZ_ITERATIONS = 2000;
+
+    public void testFullUpdateRoundTrip() throws IOException {
+        byte[] message = TestForecastDelivery.createMessage(8.2);
+        ForecastUpdate update = ForecastUpdate.decode(ForecastUpdate.encodeFull(42, message));
+        assertEquals(ForecastUpdate.KIND_FULL, update.kind);
+        assertEquals(42, update.sequence);
+        assertEquals(ForecastUpdate.checksum(message), update.checksum);
+        assertTrue(Arrays.equals(message, update.apply(null)));
+    }
+
+    /*
+        Random edits to a message, including changes of length, always patch back to the
+        message the phone has.
+     */
+    public void testDeltasApplyToTheirBase() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] base = randomBytes(random, 1 + random.nextInt(80));
+            byte[] message = Arrays.copyOf(base, Math.max(1, base.length + random.nextInt(15) - 7));
+            for (int edits = random.nextInt(4); edits >= 0; edits--) {
+                message[random.nextInt(message.length)] = (byte) random.nextInt();
+            }
+
+            byte[] delta = ForecastUpdate.encodeDelta(i, base, message);
+            if (delta == null) {
+                continue;
+            }
+            assertTrue("Error: a delta of " + delta.length + " bytes for a message of " +
+                    message.length, delta.length < ForecastUpdate.encodeFull(i, message).length);
+            ForecastUpdate update = ForecastUpdate.decode(delta);
+            assertEquals(ForecastUpdate.KIND_DELTA, update.kind);
+            assertTrue(Arrays.equals(message, update.apply(base)));
+        }
+    }
+
+    public void testDeltaNeedsItsBase() throws IOException {
+        byte[] base = TestForecastDelivery.createMessage(8.2);
+        byte[] message = TestForecastDelivery.createMessage(9.1);
+        ForecastUpdate update = ForecastUpdate.decode(ForecastUpdate.encodeDelta(2, base, message));
+
+        assertApplyFails(update, null);
+        assertApplyFails(update, TestForecastDelivery.createMessage(-3.0));
+    }
+
+    /*
+        Whatever arrives on the message path, the watch should either get a message or an
+        IOException it can log, never a crash or a forecast the phone didn't send.
+     */
+    public void testDamagedUpdatesFailCleanly() {
+        Random random = new Random(42);
+        byte[] base = TestForecastDelivery.createMessage(8.2);
+        byte[] message = TestForecastDelivery.createMessage(9.1);
+        byte[] delta = ForecastUpdate.encodeDelta(2, base, message);
+
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            byte[] damaged = random.nextBoolean()
+                    ? Arrays.copyOf(delta, random.nextInt(delta.length))
+                    : delta.clone();
+            if (damaged.length > 0 && random.nextBoolean()) {
+                damaged[random.nextInt(damaged.length)] ^= 1 << random.nextInt(8);
+            }
+            try {
+                byte[] result = ForecastUpdate.decode(damaged).apply(base);
+                assertTrue("Error: a damaged update was applied",
+                        Arrays.equals(message, result));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testSequenceNumbersWrap() {
+        assertTrue(ForecastUpdate.isNewer(2, 1));
+        assertFalse(ForecastUpdate.isNewer(1, 1));
+        assertFalse(ForecastUpdate.isNewer(1, 2));
+        assertTrue(ForecastUpdate.isNewer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    public void testStatusRoundTrip() throws IOException {
+        ForecastUpdate.Status status = ForecastUpdate.Status.decode(
+                new ForecastUpdate.Status(-5, 0xfedcba98L, true).encode());
+        assertEquals(-5, status.sequence);
+        assertEquals(0xfedcba98L, status.checksum);
+        assertTrue(status.request);
+
+        try {
+            ForecastUpdate.Status.decode("ready".getBytes());
+            fail("Error: the old ready message was read as a status");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testEmptyStatusRoundTrip() throws IOException {
+        // A watch that holds nothing must read back as the phone's own "holds nothing"
+        ForecastUpdate.Status status = ForecastUpdate.Status.decode(
+                new ForecastUpdate.Status(0, ForecastUpdate.NO_CHECKSUM, true).encode());
+        assertEquals(0, status.sequence);
+        assertEquals(ForecastUpdate.NO_CHECKSUM, status.checksum);
+        assertTrue(status.request);
+    }
+
+    public void testZeroChecksumIsHeld() throws IOException {
+        // 0 is a CRC32 like any other; a watch holding such a message doesn't hold nothing
+        ForecastUpdate.Status status = ForecastUpdate.Status.decode(
+                new ForecastUpdate.Status(9, 0, false).encode());
+        assertEquals(9, status.sequence);
+        assertEquals(0, status.checksum);
+        assertFalse(status.request);
+    }
+
+    private static void assertApplyFails(ForecastUpdate update, byte[] held) {
+        try {
+            update.apply(held);
+            fail("Error: a delta was applied to a message it wasn't made from");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestWorkQueue extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWorkQueue.class.getSimpleName();
+
+    static final int CAPACITY = 4;
+
+    // Peer connect and disconnect events, each of which used to start a thread
+    static final int BURST = 50;
+
+    private HandlerThread mThread;
+    private WorkQueue mQueue;
+
+    // Holds up the queue's thread until released
+    private CountDownLatch mRelease;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mQueue = new WorkQueue(mThread.getLooper(), CAPACITY);
+        mRelease = new CountDownLatch(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRelease.countDown();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBurstCollapsesIntoOneTask() throws InterruptedException {
+        block();
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < BURST; i++) {
+            assertTrue(mQueue.post("request", request));
+        }
+        assertEquals(1, mQueue.getDepth());
+        assertTrue(mQueue.isWaiting("request"));
+        assertEquals(BURST - 1, mQueue.getCollapsedCount());
+        Log.i(LOG_TAG, "after a burst of " + BURST + ": " + mQueue);
+
+        mRelease.countDown();
+        drain();
+        assertEquals(1, runs.get());
+        assertFalse(mQueue.isWaiting("request"));
+
+        // Once it has run, the next request is queued again
+        mQueue.post("request", request);
+        drain();
+        assertEquals(2, runs.get());
+    }
+
+    public void testWorkBeyondCapacityIsDropped() throws InterruptedException {
+        block();
+        final CountDownLatch runs = new CountDownLatch(CAPACITY + 1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.countDown();
+            }
+        };
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(mQueue.post(i, task));
+        }
+        assertFalse(mQueue.post(CAPACITY, task));
+        assertEquals(CAPACITY, mQueue.getDepth());
+        assertEquals(CAPACITY, mQueue.getMaxDepth());
+        assertEquals(1, mQueue.getDroppedCount());
+
+        mRelease.countDown();
+        assertFalse("Error: the dropped task ran", runs.await(1, TimeUnit.SECONDS));
+        assertEquals(1, runs.getCount());
+        assertEquals(0, mQueue.getDepth());
+        assertEquals(CAPACITY, mQueue.getMaxDepth());
+    }
+
+    /**
+     * Occupies the queue's thread with a task that waits on mRelease.
+     */
+    private void block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        mQueue.post("block", new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Waits for the work posted so far to run.
+     */
+    private void drain() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        assertTrue(mQueue.post("drain", new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves the art URL for each weather condition in the art pack the user picked, for
+ * {@link Utility}.  The URLs of the current pack are built once, one per kind of art, and
+ * published as an immutable {@link Pack}; lookups read it without locking or touching
+ * SharedPreferences.  A new pack is built when the art pack preference changes.
+ * <p>
+ * The listener runs on the main thread, before the reload that SettingsActivity triggers for
+ * the same change reaches a loader, so loaders see the new pack.
+ */
+final class ArtPackResolver implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static volatile ArtPackResolver sInstance;
+
+    /**
+     * The art pack in use, and the URL of the art for each condition id in it.
+     */
+    static final class Pack {
+        final boolean local;
+        // Indexed by weather id - WeatherConditions.MIN_ID, null where there is no art
+        private final String[] mUrls;
+
+        Pack(boolean local, String[] urls) {
+            this.local = local;
+            mUrls = urls;
+        }
+
+        String getArtUrl(int weatherId) {
+            if (weatherId < WeatherConditions.MIN_ID || weatherId > WeatherConditions.MAX_ID) {
+                return null;
+            }
+            return mUrls[weatherId - WeatherConditions.MIN_ID];
+        }
+    }
+
+    private final Context mContext;
+    private final String mArtPackKey;
+    private final String mSunshineArtPack;
+    private volatile Pack mPack;
+
+    private ArtPackResolver(Context context) {
+        mContext = context.getApplicationContext();
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSunshineArtPack = mContext.getString(R.string.pref_art_pack_sunshine);
+    }
+
+    static ArtPackResolver get(Context context) {
+        ArtPackResolver resolver = sInstance;
+        if (resolver == null) {
+            synchronized (ArtPackResolver.class) {
+                resolver = sInstance;
+                if (resolver == null) {
+                    resolver = new ArtPackResolver(context);
+                    // SharedPreferences only holds its listeners weakly; the instance is kept
+                    // for the life of the process, which keeps the listener
+                    SharedPreferences prefs =
+                            PreferenceManager.getDefaultSharedPreferences(resolver.mContext);
+                    prefs.registerOnSharedPreferenceChangeListener(resolver);
+                    resolver.mPack = resolver.loadPack(prefs);
+                    sInstance = resolver;
+                }
+            }
+        }
+        return resolver;
+    }
+
+    Pack getPack() {
+        return mPack;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (mArtPackKey.equals(key)) {
+            mPack = loadPack(prefs);
+        }
+    }
+
+    private Pack loadPack(SharedPreferences prefs) {
+        String formatArtUrl = prefs.getString(mArtPackKey, mSunshineArtPack);
+
+        String[] urls = new String[WeatherConditions.MAX_ID - WeatherConditions.MIN_ID + 1];
+        Map<String, String> urlsByKey = new HashMap<>();
+        for (int i = 0; i < urls.length; i++) {
+            String artKey = WeatherConditions.get(WeatherConditions.MIN_ID + i).artKey;
+            if (artKey == null) {
+                continue;
+            }
+            String url = urlsByKey.get(artKey);
+            if (url == null) {
+                url = String.format(Locale.US, formatArtUrl, artKey);
+                urlsByKey.put(artKey, url);
+            }
+            urls[i] = url;
+        }
+        return new Pack(formatArtUrl.equals(mSunshineArtPack), urls);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.SparseArray;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Formats dates, temperatures and wind speeds for display on behalf of {@link Utility}.
+ * <p>
+ * Date formats aren't thread safe, so each thread gets its own formatters, format strings
+ * and a memo of the strings for each julian day it has formatted.  They are built for the
+ * default locale and time zone, and built again when either changes:
+ * {@link FormatChangeReceiver} calls {@link #invalidate} when the system reports a change,
+ * and a thread notices a new default locale itself.
+ */
+final class DisplayFormatter {
+
+    // Julian days memoized per thread; far more than a forecast spans
+    private static final int MAX_MEMO_DAYS = 64;
+
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final ThreadLocal<DisplayFormatter> sFormatter =
+            new ThreadLocal<DisplayFormatter>();
+
+    private static final class Day {
+        String name;
+        String monthDay;
+        String shortDate;
+    }
+
+    private final int mGeneration;
+    private final Locale mLocale;
+    private final TimeZone mZone;
+
+    private final String mToday;
+    private final String mTomorrow;
+    private final String mFullFriendlyDateFormat;
+    private final String mTemperatureFormat;
+    private final String mWindKmhFormat;
+    private final String mWindMphFormat;
+
+    private final SimpleDateFormat mDayNameFormat;
+    private final SimpleDateFormat mMonthDayFormat;
+    private final SimpleDateFormat mShortDateFormat;
+    private final DateFormat mDateFormat;
+    private final Date mDate = new Date();
+
+    private final StringBuilder mBuilder = new StringBuilder();
+    private final Formatter mFormatter;
+
+    private final SparseArray<Day> mDays = new SparseArray<>();
+
+    private DisplayFormatter(Context context, int generation, Locale locale) {
+        mGeneration = generation;
+        mLocale = locale;
+        mZone = TimeZone.getDefault();
+
+        Resources res = context.getResources();
+        mToday = res.getString(R.string.today);
+        mTomorrow = res.getString(R.string.tomorrow);
+        mFullFriendlyDateFormat = res.getString(R.string.format_full_friendly_date);
+        mTemperatureFormat = res.getString(R.string.format_temperature);
+        mWindKmhFormat = res.getString(R.string.format_wind_kmh);
+        mWindMphFormat = res.getString(R.string.format_wind_mph);
+
+        mDayNameFormat = createFormat("EEEE");
+        mMonthDayFormat = createFormat("MMMM dd");
+        mShortDateFormat = createFormat("EEE MMM dd");
+        mDateFormat = DateFormat.getDateInstance(DateFormat.DEFAULT, locale);
+        mDateFormat.setTimeZone(mZone);
+        mFormatter = new Formatter(mBuilder, locale);
+    }
+
+    private SimpleDateFormat createFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, mLocale);
+        format.setTimeZone(mZone);
+        return format;
+    }
+
+    /**
+     * @return the calling thread's formatter, built again if the locale or time zone changed
+     */
+    static DisplayFormatter get(Context context) {
+        DisplayFormatter formatter = sFormatter.get();
+        int generation = sGeneration.get();
+        Locale locale = Locale.getDefault();
+        if (formatter == null || formatter.mGeneration != generation
+                || !formatter.mLocale.equals(locale)) {
+            formatter = new DisplayFormatter(context, generation, locale);
+            sFormatter.set(formatter);
+        }
+        return formatter;
+    }
+
+    /**
+     * Makes every thread build its formatters again before it next formats anything.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return the julian day <code>dateInMillis</code> falls on in the time zone the dates
+     *         are formatted in
+     */
+    private int getJulianDay(long dateInMillis) {
+        return julianDay(dateInMillis, mZone.getOffset(dateInMillis));
+    }
+
+    /**
+     * android.text.format.Time.getJulianDay, taking the offset from UTC in milliseconds.  The
+     * friendly strings compare days using today's offset, as Utility did with Time.setToNow.
+     */
+    private static int julianDay(long millis, long offsetMs) {
+        return (int) ((millis + offsetMs) / (24 * 60 * 60 * 1000L)) + 2440588;
+    }
+
+    private Day getDay(long dateInMillis) {
+        int julianDay = getJulianDay(dateInMillis);
+        Day day = mDays.get(julianDay);
+        if (day == null) {
+            if (mDays.size() >= MAX_MEMO_DAYS) {
+                mDays.clear();
+            }
+            day = new Day();
+            mDays.put(julianDay, day);
+        }
+        return day;
+    }
+
+    private String format(SimpleDateFormat format, long dateInMillis) {
+        mDate.setTime(dateInMillis);
+        return format.format(mDate);
+    }
+
+    private String formatString(String pattern, Object... args) {
+        mBuilder.setLength(0);
+        mFormatter.format(pattern, args);
+        return mBuilder.toString();
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString
+     */
+    String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        long now = System.currentTimeMillis();
+        long offsetNow = mZone.getOffset(now);
+        int julianDay = julianDay(dateInMillis, offsetNow);
+        int currentJulianDay = julianDay(now, offsetNow);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return formatString(mFullFriendlyDateFormat, mToday,
+                    getFormattedMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return getDayName(dateInMillis);
+        } else {
+            Day day = getDay(dateInMillis);
+            if (day.shortDate == null) {
+                day.shortDate = format(mShortDateFormat, dateInMillis);
+            }
+            return day.shortDate;
+        }
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString
+     */
+    String getFullFriendlyDayString(long dateInMillis) {
+        return formatString(mFullFriendlyDateFormat, getDayName(dateInMillis),
+                getFormattedMonthDay(dateInMillis));
+    }
+
+    /**
+     * @see Utility#getDayName
+     */
+    String getDayName(long dateInMillis) {
+        long now = System.currentTimeMillis();
+        long offsetNow = mZone.getOffset(now);
+        int julianDay = julianDay(dateInMillis, offsetNow);
+        int currentJulianDay = julianDay(now, offsetNow);
+        if (julianDay == currentJulianDay) {
+            return mToday;
+        } else if (julianDay == currentJulianDay + 1) {
+            return mTomorrow;
+        }
+        Day day = getDay(dateInMillis);
+        if (day.name == null) {
+            day.name = format(mDayNameFormat, dateInMillis);
+        }
+        return day.name;
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay
+     */
+    String getFormattedMonthDay(long dateInMillis) {
+        Day day = getDay(dateInMillis);
+        if (day.monthDay == null) {
+            day.monthDay = format(mMonthDayFormat, dateInMillis);
+        }
+        return day.monthDay;
+    }
+
+    /**
+     * @see Utility#formatDate
+     */
+    String formatDate(long dateInMillis) {
+        mDate.setTime(dateInMillis);
+        return mDateFormat.format(mDate);
+    }
+
+    /**
+     * @param temperature in the units to show
+     */
+    String formatTemperature(double temperature) {
+        return formatString(mTemperatureFormat, temperature);
+    }
+
+    /**
+     * @param windSpeed in the units to show
+     */
+    String formatWind(boolean metric, float windSpeed, String direction) {
+        return formatString(metric ? mWindKmhFormat : mWindMphFormat, windSpeed, direction);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast list as {@link ForecastRow}s, formatted on the loader's thread by a
+ * {@link ForecastRowFormatter} that reuses the rows of days that didn't change, together
+ * with the {@link DiffUtil} result against the rows it delivered last, so the adapter only
+ * rebinds the rows that changed.  Like a <code>CursorLoader</code> it loads again whenever the
+ * weather table changes, which includes a change of units or art pack: SettingsActivity
+ * notifies the table then.  It also loads again when started with rows formatted for another
+ * locale, time zone or day.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastLoader.Result> {
+
+    // For the forecast view we're showing only a small subset of the stored data.
+    // Specify the columns we need.
+    private static final String[] FORECAST_COLUMNS = {
+            // In this case the id needs to be fully qualified with a table name, since
+            // the content provider joins the location & weather tables in the background
+            // (both have an _id column)
+            // On the one hand, that's annoying.  On the other, you can search the weather table
+            // using the location set by the user, which is only in the Location table.
+            // So the convenience is worth it.
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
+    // must change.
+    static final int COL_WEATHER_ID = 0;
+    static final int COL_WEATHER_DATE = 1;
+    static final int COL_WEATHER_DESC = 2;
+    static final int COL_WEATHER_MAX_TEMP = 3;
+    static final int COL_WEATHER_MIN_TEMP = 4;
+    static final int COL_LOCATION_SETTING = 5;
+    static final int COL_WEATHER_CONDITION_ID = 6;
+    static final int COL_COORD_LAT = 7;
+    static final int COL_COORD_LONG = 8;
+
+    static class Result {
+        final List<ForecastRow> rows;
+        // The rows the diff leads from, or null if the adapter should replace what it shows
+        final List<ForecastRow> previousRows;
+        final DiffUtil.DiffResult diff;
+        // Where the forecast is for, or null if there are no rows
+        final String coordLat;
+        final String coordLong;
+        // What the rows were formatted with; the strings are stale once these change
+        final ForecastRowFormatter.Settings settings;
+
+        Result(List<ForecastRow> rows, List<ForecastRow> previousRows, DiffUtil.DiffResult diff,
+               String coordLat, String coordLong, ForecastRowFormatter.Settings settings) {
+            this.rows = rows;
+            this.previousRows = previousRows;
+            this.diff = diff;
+            this.coordLat = coordLat;
+            this.coordLong = coordLong;
+            this.settings = settings;
+        }
+    }
+
+    private final Uri mUri;
+    private final ForecastRowFormatter mFormatter;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+
+    // The last result delivered, which the next one is diffed against
+    private volatile Result mResult;
+
+    ForecastLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+        mFormatter = new ForecastRowFormatter(context);
+    }
+
+    @Override
+    public Result loadInBackground() {
+        Result previous = mResult;
+        List<ForecastRow> rows = new ArrayList<>();
+        String coordLat = null;
+        String coordLong = null;
+
+        // Sort order:  Ascending, by date.
+        Cursor cursor = getContext().getContentResolver().query(mUri, FORECAST_COLUMNS, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        ForecastRowFormatter.Settings settings = mFormatter.startDataset();
+        // One art pack for the whole dataset, even if the preference changes meanwhile
+        ArtPackResolver.Pack artPack = ArtPackResolver.get(getContext()).getPack();
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    coordLat = cursor.getString(COL_COORD_LAT);
+                    coordLong = cursor.getString(COL_COORD_LONG);
+                }
+                for (int i = 0; i < cursor.getCount(); i++) {
+                    cursor.moveToPosition(i);
+                    rows.add(buildRow(cursor, artPack));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        mFormatter.finishDataset();
+        rows = Collections.unmodifiableList(rows);
+
+        if (previous == null) {
+            return new Result(rows, null, null, coordLat, coordLong, settings);
+        }
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new RowDiff(previous.rows, rows));
+        return new Result(rows, previous.rows, diff, coordLat, coordLong, settings);
+    }
+
+    private ForecastRow buildRow(Cursor cursor, ArtPackResolver.Pack artPack) {
+        int weatherId = cursor.getInt(COL_WEATHER_CONDITION_ID);
+        String artUrl = artPack.local ? null : artPack.getArtUrl(weatherId);
+        return mFormatter.getRow(cursor.getLong(COL_WEATHER_DATE), weatherId,
+                cursor.getDouble(COL_WEATHER_MAX_TEMP), cursor.getDouble(COL_WEATHER_MIN_TEMP),
+                artUrl);
+    }
+
+    @Override
+    public void deliverResult(Result result) {
+        if (isReset()) {
+            return;
+        }
+        mResult = result;
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        // The locale, time zone or day may have changed while stopped, which notifies no table;
+        // rows formatted for the old ones aren't shown again
+        boolean stale = mResult != null
+                && !mResult.settings.equals(ForecastRowFormatter.Settings.read(getContext()));
+        if (mResult != null && !stale) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null || stale) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mResult = null;
+    }
+
+    /**
+     * Rows are the same item if they are for the same day, and need no rebinding if their
+     * contents are equal too.  The first row is drawn differently, so a row moving to or from
+     * the top always rebinds.
+     */
+    static class RowDiff extends DiffUtil.Callback {
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+
+        RowDiff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).date == mNewRows.get(newItemPosition).date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return (oldItemPosition == 0) == (newItemPosition == 0)
+                    && mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
+    }
+}
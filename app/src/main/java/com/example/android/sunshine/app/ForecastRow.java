@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * One day of the forecast list, read out of the cursor and formatted on the loader's thread,
+ * down to the content descriptions, so binding a row only sets text.  Rows are immutable, so
+ * the list the adapter shows can be compared with the next one off the main thread; two rows
+ * with equal contents bind to identical views.
+ */
+class ForecastRow {
+    final long date;
+    final int weatherId;
+
+    // The friendly date, and the long form used when the row is shown in the today layout
+    final String dateText;
+    final String todayDateText;
+    final String description;
+    final String highText;
+    final String lowText;
+
+    // Content descriptions for the description and temperature views
+    final String descriptionA11y;
+    final String highA11y;
+    final String lowA11y;
+
+    // The art to load for the row, or null to use the bundled graphics
+    final String artUrl;
+
+    ForecastRow(long date, int weatherId, String dateText, String todayDateText,
+                String description, String highText, String lowText, String descriptionA11y,
+                String highA11y, String lowA11y, String artUrl) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.dateText = dateText;
+        this.todayDateText = todayDateText;
+        this.description = description;
+        this.highText = highText;
+        this.lowText = lowText;
+        this.descriptionA11y = descriptionA11y;
+        this.highA11y = highA11y;
+        this.lowA11y = lowA11y;
+        this.artUrl = artUrl;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow row = (ForecastRow) o;
+        return date == row.date
+                && weatherId == row.weatherId
+                && dateText.equals(row.dateText)
+                && todayDateText.equals(row.todayDateText)
+                && description.equals(row.description)
+                && highText.equals(row.highText)
+                && lowText.equals(row.lowText)
+                && descriptionA11y.equals(row.descriptionA11y)
+                && highA11y.equals(row.highA11y)
+                && lowA11y.equals(row.lowA11y)
+                && (artUrl == null ? row.artUrl == null : artUrl.equals(row.artUrl));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (date ^ (date >>> 32));
+        result = 31 * result + weatherId;
+        result = 31 * result + dateText.hashCode();
+        result = 31 * result + highText.hashCode();
+        result = 31 * result + lowText.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the {@link ForecastRow}s for a {@link ForecastLoader}, keeping the rows of the last
+ * dataset so a reload only formats the days whose data or display settings changed.  A row is
+ * reused when its date, weather id, temperatures and art match, and the units, locale, time
+ * zone and current day are the ones it was formatted with; the current day matters because
+ * the friendly date reads "Today" or "Tomorrow" relative to it.
+ * <p>
+ * Not thread safe; only the loader's thread uses it, one dataset at a time.
+ */
+class ForecastRowFormatter {
+
+    private static final class Key {
+        final long date;
+        final int weatherId;
+        final double high;
+        final double low;
+        final String artUrl;
+
+        Key(long date, int weatherId, double high, double low, String artUrl) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+            this.artUrl = artUrl;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return date == key.date
+                    && weatherId == key.weatherId
+                    && Double.compare(high, key.high) == 0
+                    && Double.compare(low, key.low) == 0
+                    && (artUrl == null ? key.artUrl == null : artUrl.equals(key.artUrl));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (date ^ (date >>> 32));
+            result = 31 * result + weatherId;
+            long bits = Double.doubleToLongBits(high);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            bits = Double.doubleToLongBits(low);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * The display settings rows are formatted with.  Cheap enough to read on the main thread.
+     */
+    static final class Settings {
+        final boolean metric;
+        final Locale locale;
+        final long gmtOffset;
+        final int julianDay;
+
+        Settings(boolean metric, Locale locale, long gmtOffset, int julianDay) {
+            this.metric = metric;
+            this.locale = locale;
+            this.gmtOffset = gmtOffset;
+            this.julianDay = julianDay;
+        }
+
+        static Settings read(Context context) {
+            Time time = new Time();
+            time.setToNow();
+            return new Settings(Utility.isMetric(context),
+                    context.getResources().getConfiguration().locale, time.gmtoff,
+                    Time.getJulianDay(System.currentTimeMillis(), time.gmtoff));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Settings)) {
+                return false;
+            }
+            Settings settings = (Settings) o;
+            return metric == settings.metric
+                    && locale.equals(settings.locale)
+                    && gmtOffset == settings.gmtOffset
+                    && julianDay == settings.julianDay;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = metric ? 1 : 0;
+            result = 31 * result + locale.hashCode();
+            result = 31 * result + (int) (gmtOffset ^ (gmtOffset >>> 32));
+            result = 31 * result + julianDay;
+            return result;
+        }
+    }
+
+    private final Context mContext;
+
+    // The settings the cached rows were formatted with; a change to any of them drops the rows
+    private Settings mSettings;
+
+    // The rows of the last dataset, and of the one being built
+    private Map<Key, ForecastRow> mRows = new HashMap<>();
+    private Map<Key, ForecastRow> mNextRows = new HashMap<>();
+
+    private int mFormattedCount;
+
+    ForecastRowFormatter(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Starts a dataset, reading the settings its rows are formatted with.
+     *
+     * @return those settings
+     */
+    Settings startDataset() {
+        Settings settings = Settings.read(mContext);
+        if (!settings.equals(mSettings)) {
+            mRows.clear();
+            mSettings = settings;
+        }
+        mNextRows.clear();
+        mFormattedCount = 0;
+        return settings;
+    }
+
+    /**
+     * @param artUrl the art to load for the row, or null to use the bundled graphics
+     * @return the row for a day of the dataset, reused from the last one if nothing changed
+     */
+    ForecastRow getRow(long date, int weatherId, double high, double low, String artUrl) {
+        Key key = new Key(date, weatherId, high, low, artUrl);
+        ForecastRow row = mRows.get(key);
+        if (row == null) {
+            row = mNextRows.get(key);
+        }
+        if (row == null) {
+            row = format(date, weatherId, high, low, artUrl);
+            mFormattedCount++;
+        }
+        mNextRows.put(key, row);
+        return row;
+    }
+
+    /**
+     * Ends the dataset; rows for days it didn't have are dropped.
+     */
+    void finishDataset() {
+        Map<Key, ForecastRow> rows = mRows;
+        mRows = mNextRows;
+        mNextRows = rows;
+        mNextRows.clear();
+    }
+
+    /**
+     * @return how many rows of the current dataset had to be formatted
+     */
+    int getFormattedCount() {
+        return mFormattedCount;
+    }
+
+    private ForecastRow format(long date, int weatherId, double high, double low,
+                               String artUrl) {
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        String highText = Utility.formatTemperature(mContext, high);
+        String lowText = Utility.formatTemperature(mContext, low);
+        return new ForecastRow(date, weatherId,
+                Utility.getFriendlyDayString(mContext, date, false),
+                Utility.getFriendlyDayString(mContext, date, true),
+                description, highText, lowText,
+                mContext.getString(R.string.a11y_forecast, description),
+                mContext.getString(R.string.a11y_high_temp, highText),
+                mContext.getString(R.string.a11y_low_temp, lowText),
+                artUrl);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * What Sunshine shows for each OpenWeatherMap condition id, in one table indexed by the id so
+ * that every {@link Utility} lookup is an array read.  Ids are grouped by their first digit;
+ * see http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+    static final int MIN_ID = 200;
+    static final int MAX_ID = 962;
+
+    private static final String IMAGE_STORM =
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+    private static final String IMAGE_LIGHT_RAIN =
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+    private static final String IMAGE_RAIN =
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+    private static final String IMAGE_SNOW =
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+    private static final String IMAGE_FOG =
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+    private static final String IMAGE_DUST =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+    private static final String IMAGE_CLEAR =
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+    private static final String IMAGE_LIGHT_CLOUDS =
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+    private static final String IMAGE_CLOUDS =
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+
+    /**
+     * Everything shown for one condition id.
+     */
+    static final class Condition {
+        // The list icon and the detail art, or -1 if there is none
+        final int iconResource;
+        final int artResource;
+        // The description, or 0 if the id has none of its own
+        final int stringResource;
+        // The name the art packs give the art, or null if there is none
+        final String artKey;
+        // The photo Muzei shows, or null if there is none
+        final String imageUrl;
+
+        Condition(int iconResource, int artResource, int stringResource, String artKey,
+                  String imageUrl) {
+            this.iconResource = iconResource;
+            this.artResource = artResource;
+            this.stringResource = stringResource;
+            this.artKey = artKey;
+            this.imageUrl = imageUrl;
+        }
+    }
+
+    // Shown for ids the table doesn't cover
+    static final Condition UNKNOWN = new Condition(-1, -1, 0, null, null);
+
+    private static final Condition[] sConditions = new Builder()
+            .graphics(200, 232, R.drawable.ic_storm, R.drawable.art_storm, "storm", IMAGE_STORM)
+            .graphics(300, 321, R.drawable.ic_light_rain, R.drawable.art_light_rain,
+                    "light_rain", IMAGE_LIGHT_RAIN)
+            .graphics(500, 504, R.drawable.ic_rain, R.drawable.art_rain, "rain", IMAGE_RAIN)
+            .graphics(511, 511, R.drawable.ic_snow, R.drawable.art_snow, "snow", IMAGE_SNOW)
+            .graphics(520, 531, R.drawable.ic_rain, R.drawable.art_rain, "rain", IMAGE_RAIN)
+            .graphics(600, 622, R.drawable.ic_snow, R.drawable.art_snow, "snow", IMAGE_SNOW)
+            // Includes 761, dust, which Utility also meant to show as a storm
+            .graphics(701, 761, R.drawable.ic_fog, R.drawable.art_fog, "fog", IMAGE_FOG)
+            .graphics(781, 781, R.drawable.ic_storm, R.drawable.art_storm, "storm", IMAGE_DUST)
+            .graphics(800, 800, R.drawable.ic_clear, R.drawable.art_clear, "clear", IMAGE_CLEAR)
+            .graphics(801, 801, R.drawable.ic_light_clouds, R.drawable.art_light_clouds,
+                    "light_clouds", IMAGE_LIGHT_CLOUDS)
+            .graphics(802, 804, R.drawable.ic_cloudy, R.drawable.art_clouds, "clouds",
+                    IMAGE_CLOUDS)
+            .string(200, 232, R.string.condition_2xx)
+            .string(300, 321, R.string.condition_3xx)
+            .string(500, R.string.condition_500)
+            .string(501, R.string.condition_501)
+            .string(502, R.string.condition_502)
+            .string(503, R.string.condition_503)
+            .string(504, R.string.condition_504)
+            .string(511, R.string.condition_511)
+            .string(520, R.string.condition_520)
+            .string(531, R.string.condition_531)
+            .string(600, R.string.condition_600)
+            .string(601, R.string.condition_601)
+            .string(602, R.string.condition_602)
+            .string(611, R.string.condition_611)
+            .string(612, R.string.condition_612)
+            .string(615, R.string.condition_615)
+            .string(616, R.string.condition_616)
+            .string(620, R.string.condition_620)
+            .string(621, R.string.condition_621)
+            .string(622, R.string.condition_622)
+            .string(701, R.string.condition_701)
+            .string(711, R.string.condition_711)
+            .string(721, R.string.condition_721)
+            .string(731, R.string.condition_731)
+            .string(741, R.string.condition_741)
+            .string(751, R.string.condition_751)
+            .string(761, R.string.condition_761)
+            .string(762, R.string.condition_762)
+            .string(771, R.string.condition_771)
+            .string(781, R.string.condition_781)
+            .string(800, R.string.condition_800)
+            .string(801, R.string.condition_801)
+            .string(802, R.string.condition_802)
+            .string(803, R.string.condition_803)
+            .string(804, R.string.condition_804)
+            .string(900, R.string.condition_900)
+            .string(901, R.string.condition_901)
+            .string(902, R.string.condition_902)
+            .string(903, R.string.condition_903)
+            .string(904, R.string.condition_904)
+            .string(905, R.string.condition_905)
+            .string(906, R.string.condition_906)
+            .string(951, R.string.condition_951)
+            .string(952, R.string.condition_952)
+            .string(953, R.string.condition_953)
+            .string(954, R.string.condition_954)
+            .string(955, R.string.condition_955)
+            .string(956, R.string.condition_956)
+            .string(957, R.string.condition_957)
+            .string(958, R.string.condition_958)
+            .string(959, R.string.condition_959)
+            .string(960, R.string.condition_960)
+            .string(961, R.string.condition_961)
+            .string(962, R.string.condition_962)
+            .build();
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return what to show for <code>weatherId</code>; never null
+     */
+    static Condition get(int weatherId) {
+        if (weatherId < MIN_ID || weatherId > MAX_ID) {
+            return UNKNOWN;
+        }
+        return sConditions[weatherId - MIN_ID];
+    }
+
+    private static final class Builder {
+        private final int[] mIcons = new int[MAX_ID - MIN_ID + 1];
+        private final int[] mArt = new int[mIcons.length];
+        private final int[] mStrings = new int[mIcons.length];
+        private final String[] mArtKeys = new String[mIcons.length];
+        private final String[] mImageUrls = new String[mIcons.length];
+
+        Builder() {
+            Arrays.fill(mIcons, -1);
+            Arrays.fill(mArt, -1);
+        }
+
+        Builder graphics(int firstId, int lastId, int iconResource, int artResource,
+                         String artKey, String imageUrl) {
+            for (int id = firstId; id <= lastId; id++) {
+                mIcons[id - MIN_ID] = iconResource;
+                mArt[id - MIN_ID] = artResource;
+                mArtKeys[id - MIN_ID] = artKey;
+                mImageUrls[id - MIN_ID] = imageUrl;
+            }
+            return this;
+        }
+
+        Builder string(int firstId, int lastId, int stringResource) {
+            for (int id = firstId; id <= lastId; id++) {
+                mStrings[id - MIN_ID] = stringResource;
+            }
+            return this;
+        }
+
+        Builder string(int id, int stringResource) {
+            return string(id, id, stringResource);
+        }
+
+        Condition[] build() {
+            Condition[] conditions = new Condition[mIcons.length];
+            for (int i = 0; i < conditions.length; i++) {
+                if (mIcons[i] == -1 && mStrings[i] == 0) {
+                    conditions[i] = UNKNOWN;
+                } else {
+                    conditions[i] = new Condition(mIcons[i], mArt[i], mStrings[i], mArtKeys[i],
+                            mImageUrls[i]);
+                }
+            }
+            return conditions;
+        }
+    }
+}
@@ -47,8 +47,13 @@ public class WeatherContract {
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // Same as normalizeDate(long), reusing the given Time so bulk callers don't allocate one
+    // per row.
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -126,6 +131,19 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // ContentProvider.call() method that upserts an array of weather rows, only writing the
+        // rows whose values actually changed.  The rows go in EXTRA_VALUES; if EXTRA_DELETE_BEFORE
+        // holds a date, rows on or before it are deleted in the same transaction.  Observers are
+        // notified once, if anything changed.  The returned Bundle holds the EXTRA_INSERTED,
+        // EXTRA_UPDATED, EXTRA_UNCHANGED and EXTRA_DELETED counts.
+        public static final String METHOD_UPSERT = "upsert_weather";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_DELETE_BEFORE = "delete_before";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+        public static final String EXTRA_DELETED = "deleted";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
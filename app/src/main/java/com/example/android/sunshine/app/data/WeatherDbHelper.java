@@ -16,24 +16,102 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * On Jelly Bean and up the database runs in write-ahead logging mode, so the sync adapter's
+ * write transaction doesn't block the loaders, the widget and the wearable service reading the
+ * forecast: the framework hands each concurrent reader its own connection from the pool it
+ * keeps for WAL databases.  Whether WAL is used and how the log is checkpointed are set in
+ * <code>res/values/bools.xml</code> and <code>res/values/integers.xml</code>.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 3;
+
+    // Databases older than this predate in-place migrations and are rebuilt instead
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date_idx";
+
+    private final boolean mWriteAheadLogging;
+    private final int mAutoCheckpointPages;
+    private final boolean mCheckpointAfterBulkWrite;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, context.getResources());
+    }
+
+    private WeatherDbHelper(Context context, String name, Resources res) {
+        this(context, name,
+                res.getBoolean(R.bool.weather_db_write_ahead_logging),
+                res.getInteger(R.integer.weather_db_wal_autocheckpoint_pages),
+                res.getBoolean(R.bool.weather_db_checkpoint_after_bulk_write));
+    }
+
+    /**
+     * @param autoCheckpointPages how many pages the log may grow to before SQLite checkpoints
+     *                            it on commit, or 0 to only checkpoint after bulk writes
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging,
+                    int autoCheckpointPages, boolean checkpointAfterBulkWrite) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        mAutoCheckpointPages = autoCheckpointPages;
+        mCheckpointAfterBulkWrite = checkpointAfterBulkWrite || autoCheckpointPages <= 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(mWriteAheadLogging);
+        }
+    }
+
+    boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (mWriteAheadLogging) {
+            // wal_autocheckpoint answers with a row, so it can't go through execSQL
+            pragma(db, "wal_autocheckpoint=" + Math.max(mAutoCheckpointPages, 0));
+        }
+    }
+
+    /**
+     * Called after a bulk write has committed.  Folds the log back into the database without
+     * waiting for readers, so the log doesn't keep growing while the UI holds cursors open.
+     */
+    void onBulkWriteCommitted() {
+        if (mWriteAheadLogging && mCheckpointAfterBulkWrite) {
+            pragma(getWritableDatabase(), "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "PRAGMA " + pragma + " failed", e);
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -81,18 +159,57 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherLocationDateIndex(sqLiteDatabase);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // This database is only a cache for online data, so versions we can't migrate are
+            // simply discarded and rebuilt
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // Everything else is upgraded in place, one version at a time, so cached forecasts
+        // survive an app update.  SQLiteOpenHelper runs all of this in one transaction.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            long start = SystemClock.elapsedRealtime();
+            upgradeTo(sqLiteDatabase, version);
+            Log.d(LOG_TAG, "Upgraded " + getDatabaseName() + " to version " + version + " in " +
+                    (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+
+    /**
+     * Migrates a database at <code>version - 1</code> to <code>version</code>.  Add a case for
+     * every new DATABASE_VERSION: steps may add columns (ALTER TABLE ... ADD COLUMN), tables or
+     * indexes, and must leave the schema exactly as onCreate would build it.
+     */
+    static void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 3:
+                createWeatherLocationDateIndex(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    // Every forecast query joins on location_id and filters or sorts on date, so those lead.
+    // The list screens, widgets and Muzei only read the columns after them, which lets SQLite
+    // answer them from the index without touching the table rows.  (The UNIQUE constraint on
+    // the weather table already indexes date first, for the day based deletes.)
+    private static void createWeatherLocationDateIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ");");
     }
 }
@@ -22,10 +22,21 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
@@ -35,7 +46,7 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +63,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -281,7 +292,7 @@ public class WeatherProvider extends ContentProvider {
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -317,31 +328,316 @@ public class WeatherProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                UpsertCounts counts = upsertWeather(values, -1);
+                if (counts.changed() > 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                // Every row the provider now holds, written or not, as bulkInsert promises;
+                // METHOD_UPSERT tells them apart
+                return counts.inserted + counts.updated + counts.unchanged;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_UPSERT.equals(method)) {
+            Parcelable[] parcelables =
+                    extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            System.arraycopy(parcelables, 0, values, 0, parcelables.length);
+
+            long deleteBefore = extras.getLong(WeatherContract.WeatherEntry.EXTRA_DELETE_BEFORE, -1);
+
+            UpsertCounts counts = upsertWeather(values, deleteBefore);
+            if (counts.changed() > 0) {
+                getContext().getContentResolver().notifyChange(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null);
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, counts.inserted);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, counts.updated);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, counts.unchanged);
+            result.putInt(WeatherContract.WeatherEntry.EXTRA_DELETED, counts.deleted);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static final class UpsertCounts {
+        int inserted;
+        int updated;
+        int unchanged;
+        int deleted;
+
+        int changed() {
+            return inserted + updated + deleted;
+        }
+    }
+
+    // weather.date = ? AND weather.location_id = ?
+    private static final String sDateAndLocationSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    // weather._id = ?
+    private static final String sWeatherIdSelection =
+            WeatherContract.WeatherEntry._ID + " = ? ";
+
+    /**
+     * Writes the weather rows in one transaction, comparing each one with the row already
+     * stored for its (date, location).  New rows are inserted, rows whose values differ are
+     * updated in place (so their _ID stays the same) and identical rows aren't touched at all.
+     * Callers only need to notify observers if something was inserted, updated or deleted.
+     *
+     * @param deleteBefore if not negative, rows dated on or before it are deleted in the same
+     *                     transaction
+     */
+    private UpsertCounts upsertWeather(ContentValues[] values, long deleteBefore) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertCounts counts = new UpsertCounts();
+        db.beginTransaction();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                upsertWeatherCompiled(db, values, counts);
+            } else {
+                for (ContentValues value : values) {
+                    normalizeDate(value);
+                    upsertWeatherRow(db, value, counts);
+                }
+            }
+            if (deleteBefore >= 0) {
+                counts.deleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(deleteBefore)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (counts.changed() > 0) {
+            mOpenHelper.onBulkWriteCommitted();
+        }
+        Log.d(LOG_TAG, "Weather upsert: " + counts.inserted + " inserted, " + counts.updated +
+                " updated, " + counts.unchanged + " unchanged, " + counts.deleted + " deleted");
+        return counts;
+    }
+
+    // Positional parameters shared by the compiled weather statements.  Every column of the
+    // weather table except _ID, in the order they are bound.
+    private static final String[] sWeatherBindColumns = {
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,   // ?1
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,   // ?2
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,     // ?3
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,     // ?4
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,     // ?5
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,     // ?6
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,   // ?7
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,      // ?8
+            WeatherContract.WeatherEntry.COLUMN_DATE,         // ?9
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY       // ?10
+    };
+    private static final int BIND_SHORT_DESC = 1;
+    private static final int BIND_WEATHER_ID = 2;
+    private static final int BIND_DATE = 9;
+    private static final int BIND_LOC_KEY = 10;
+    private static final int BIND_FIRST_REAL = 3;
+    private static final int BIND_LAST_REAL = 8;
+
+    // Updates the row for (date, location) only if at least one value differs, so the number
+    // of changed rows tells updated and unchanged apart
+    private static final String sWeatherUpdateIfChangedSql;
+
+    // Inserts a new row, but leaves an existing (date, location) alone instead of replacing it
+    private static final String sWeatherInsertOrIgnoreSql;
+
+    static {
+        StringBuilder set = new StringBuilder();
+        StringBuilder changed = new StringBuilder();
+        for (int i = 0; i < BIND_DATE - 1; i++) {
+            if (i > 0) {
+                set.append(", ");
+                changed.append(" OR ");
+            }
+            set.append(sWeatherBindColumns[i]).append(" = ?").append(i + 1);
+            changed.append(sWeatherBindColumns[i]).append(" IS NOT ?").append(i + 1);
+        }
+        sWeatherUpdateIfChangedSql = "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " SET " + set +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?" + BIND_DATE +
+                " AND " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?" + BIND_LOC_KEY +
+                " AND (" + changed + ")";
+
+        StringBuilder columns = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < sWeatherBindColumns.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+                params.append(", ");
+            }
+            columns.append(sWeatherBindColumns[i]);
+            params.append('?').append(i + 1);
+        }
+        sWeatherInsertOrIgnoreSql = "INSERT OR IGNORE INTO " +
+                WeatherContract.WeatherEntry.TABLE_NAME +
+                " (" + columns + ") VALUES (" + params + ")";
+    }
+
+    /**
+     * Fast path for {@link #upsertWeather}: two statements compiled once per batch and rebound
+     * positionally for every row, instead of building SQL and a HashMap per row.  Rows that
+     * don't carry every weather column go through {@link #upsertWeatherRow}.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void upsertWeatherCompiled(SQLiteDatabase db, ContentValues[] values,
+                                              UpsertCounts counts) {
+        SQLiteStatement update = db.compileStatement(sWeatherUpdateIfChangedSql);
+        SQLiteStatement insert = db.compileStatement(sWeatherInsertOrIgnoreSql);
+        Time time = new Time();
+        try {
+            for (ContentValues value : values) {
+                if (!hasAllWeatherColumns(value)) {
+                    normalizeDate(value);
+                    upsertWeatherRow(db, value, counts);
+                    continue;
+                }
+
+                long date = WeatherContract.normalizeDate(
+                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE), time);
+                // keep the caller's values in line with what was stored, like normalizeDate does
+                value.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+
+                bindWeather(update, value, date);
+                if (update.executeUpdateDelete() > 0) {
+                    counts.updated++;
+                    continue;
+                }
+                bindWeather(insert, value, date);
+                if (insert.executeInsert() != -1) {
+                    counts.inserted++;
+                } else {
+                    // the row exists and nothing in it differs
+                    counts.unchanged++;
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+    }
+
+    private static boolean hasAllWeatherColumns(ContentValues value) {
+        if (value.containsKey(WeatherContract.WeatherEntry._ID)) {
+            return false;
+        }
+        for (String column : sWeatherBindColumns) {
+            if (value.get(column) == null) {
+                return false;
+            }
+        }
+        return value.size() == sWeatherBindColumns.length;
+    }
+
+    private static void bindWeather(SQLiteStatement statement, ContentValues value, long date) {
+        statement.bindString(BIND_SHORT_DESC,
+                value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        statement.bindLong(BIND_WEATHER_ID,
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        for (int i = BIND_FIRST_REAL; i <= BIND_LAST_REAL; i++) {
+            statement.bindDouble(i, value.getAsDouble(sWeatherBindColumns[i - 1]));
+        }
+        statement.bindLong(BIND_DATE, date);
+        statement.bindLong(BIND_LOC_KEY,
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+    }
+
+    /**
+     * Upserts a single weather row through ContentValues.  Works on every API level and with
+     * partial rows, at the cost of a query and SQL rebuilt per row.
+     */
+    private static void upsertWeatherRow(SQLiteDatabase db, ContentValues value,
+                                         UpsertCounts counts) {
+        if (!value.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                || !value.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+            // Without the unique key there is nothing to compare against
+            if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                counts.inserted++;
+            }
+            return;
+        }
+
+        String[] columns = new String[value.size() + 1];
+        columns[0] = WeatherContract.WeatherEntry._ID;
+        int i = 1;
+        for (Map.Entry<String, Object> entry : value.valueSet()) {
+            columns[i++] = entry.getKey();
+        }
+
+        Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                columns,
+                sDateAndLocationSelection,
+                new String[]{
+                        value.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE),
+                        value.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)},
+                null,
+                null,
+                null);
+        try {
+            if (!existing.moveToFirst()) {
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    counts.inserted++;
+                }
+            } else if (matches(existing, columns, value)) {
+                counts.unchanged++;
+            } else {
+                // the _ID column may be in the values, but must never change
+                value.remove(WeatherContract.WeatherEntry._ID);
+                counts.updated += db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                        sWeatherIdSelection, new String[]{existing.getString(0)});
+            }
+        } finally {
+            existing.close();
+        }
+    }
+
+    /**
+     * @return true if every value matches the stored column.  <code>columns[0]</code> is _ID
+     * and is skipped.
+     */
+    private static boolean matches(Cursor cursor, String[] columns, ContentValues values) {
+        for (int i = 1; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+            if (value == null) {
+                if (!cursor.isNull(i)) return false;
+            } else if (cursor.isNull(i)) {
+                return false;
+            } else if (value instanceof Double || value instanceof Float) {
+                if (Double.compare(((Number) value).doubleValue(), cursor.getDouble(i)) != 0) {
+                    return false;
+                }
+            } else if (value instanceof Number) {
+                // Whole numbers may sit in REAL columns, so compare them as doubles too
+                if (Double.compare(((Number) value).doubleValue(), cursor.getDouble(i)) != 0
+                        || ((Number) value).longValue() != cursor.getLong(i)) {
+                    return false;
+                }
+            } else if (value instanceof Boolean) {
+                if (((Boolean) value ? 1 : 0) != cursor.getInt(i)) return false;
+            } else if (value instanceof byte[]) {
+                if (!Arrays.equals((byte[]) value, cursor.getBlob(i))) return false;
+            } else if (!value.toString().equals(cursor.getString(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
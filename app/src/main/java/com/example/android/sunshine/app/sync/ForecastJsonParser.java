@@ -0,0 +1,329 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into weather rows ready for
+ * <code>bulkInsert</code>.
+ *
+ * On Honeycomb and higher the response is pulled token by token straight off the connection
+ * stream with a {@link JsonReader}, so neither the response String nor a JSONObject tree is
+ * ever built. Older devices fall back to the original JSONObject parse.
+ *
+ * The location id is not known while parsing (the city comes back in the same response), so
+ * the rows are returned without {@link WeatherContract.WeatherEntry#COLUMN_LOC_KEY} and
+ * {@link #setLocationId(long)} must be called before inserting them.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // OWM asks for 14 days, so size the row list for that up front
+    private static final int EXPECTED_DAYS = 14;
+
+    int messageCode = HttpURLConnection.HTTP_OK;
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+    final ArrayList<ContentValues> rows = new ArrayList<>(EXPECTED_DAYS);
+
+    // Dates are derived from the position in the list: the first day is always the current day
+    private final int mJulianStartDay;
+    private final Time mDayTime = new Time();
+
+    private ForecastJsonParser(int julianStartDay) {
+        mJulianStartDay = julianStartDay;
+    }
+
+    /**
+     * Parses the forecast directly from the response stream.
+     *
+     * @param in reader over the response body; it is not closed here
+     * @param julianStartDay the julian day of the first entry in the forecast list
+     * @throws IOException if the stream can't be read
+     * @throws JSONException if the response isn't a well formed forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static ForecastJsonParser parse(Reader in, int julianStartDay)
+            throws IOException, JSONException {
+        ForecastJsonParser parser = new ForecastJsonParser(julianStartDay);
+        JsonReader reader = new JsonReader(in);
+        try {
+            parser.readForecast(reader);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return parser;
+    }
+
+    /**
+     * Parses the forecast from the complete response body.  Used on devices without
+     * {@link JsonReader}.
+     *
+     * @param forecastJsonStr the complete response body
+     * @param julianStartDay the julian day of the first entry in the forecast list
+     * @throws JSONException if the response isn't a well formed forecast
+     */
+    static ForecastJsonParser parse(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        ForecastJsonParser parser = new ForecastJsonParser(julianStartDay);
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            parser.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (parser.messageCode != HttpURLConnection.HTTP_OK) {
+                return parser;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        parser.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        parser.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        parser.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            parser.addRow(
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID));
+        }
+        return parser;
+    }
+
+    void setLocationId(long locationId) {
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            rows.get(i).put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readForecast(JsonReader reader) throws IOException, JSONException {
+        boolean sawCity = false;
+        boolean sawList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this as either a string or a number
+                messageCode = reader.nextInt();
+                if (messageCode != HttpURLConnection.HTTP_OK) {
+                    // No point in reading the rest of an error response
+                    return;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader);
+                sawCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader);
+                }
+                reader.endArray();
+                sawList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!sawCity || !sawList) {
+            throw new JSONException("No value for " + (sawCity ? OWM_LIST : OWM_CITY));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readCity(JsonReader reader) throws IOException, JSONException {
+        boolean sawCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                sawCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !sawCoord) {
+            throw new JSONException("No value for " + (cityName == null ? OWM_CITY_NAME : OWM_COORD));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readDay(JsonReader reader) throws IOException, JSONException {
+        double pressure = Double.NaN;
+        int humidity = -1;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        double high = Double.NaN;
+        double low = Double.NaN;
+        String description = null;
+        int weatherId = -1;
+        boolean sawWeather = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = reader.nextInt();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // Only the first element is used, just like the JSONObject parse.
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (sawWeather || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    sawWeather = true;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (Double.isNaN(pressure) || humidity == -1 || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection) || Double.isNaN(high) || Double.isNaN(low)
+                || description == null || weatherId == -1) {
+            throw new JSONException("Incomplete forecast for day " + rows.size());
+        }
+
+        addRow(pressure, humidity, windSpeed, windDirection, high, low, description, weatherId);
+    }
+
+    private void addRow(double pressure, int humidity, double windSpeed, double windDirection,
+                        double high, double low, String description, int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + rows.size());
+
+        ContentValues weatherValues = new ContentValues(10);
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        rows.add(weatherValues);
+    }
+}
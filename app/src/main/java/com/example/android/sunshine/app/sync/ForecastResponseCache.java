@@ -0,0 +1,355 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+
+/**
+ * On-disk cache of the last forecast response for each location query, together with the
+ * HTTP validators (ETag / Last-Modified) it came with.  The validators are sent back on the
+ * next request so OWM can answer with a 304 when nothing changed upstream.
+ *
+ * Each location gets two files in the app cache directory: a small <code>.meta</code> file with
+ * the validators and the julian day the forecast started on, and a <code>.body</code> file with
+ * the raw response.  The body is recorded while it is being parsed, so it is never held in
+ * memory.  A recorded response only becomes the current entry once its forecast has been
+ * written to the database: until then the old validators stay in use, so a failed write or
+ * a process death makes the next sync download the forecast again rather than get a 304 for
+ * rows it never stored.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast";
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Bump if the meta file layout changes; older entries are then ignored
+    private static final int META_VERSION = 1;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final File mDir;
+
+    /**
+     * A cached response for one location.
+     */
+    static final class Entry {
+        final String etag;
+        final String lastModified;
+        final int julianStartDay;
+        final File body;
+
+        private Entry(String etag, String lastModified, int julianStartDay, File body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.julianStartDay = julianStartDay;
+            this.body = body;
+        }
+
+        /**
+         * Adds the conditional request headers.  Must be called before the connection is made.
+         */
+        void addValidators(HttpURLConnection connection) {
+            if (etag != null) {
+                connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        InputStream openBody() throws IOException {
+            return new FileInputStream(body);
+        }
+    }
+
+    /**
+     * A response that was recorded in full but isn't the current entry yet.  Call
+     * {@link #commit()} once its forecast is stored, or {@link #discard()} to drop it.
+     */
+    final class Pending {
+        private final String mLocationQuery;
+        private final String mEtag;
+        private final String mLastModified;
+        private final int mJulianStartDay;
+        private final File mTempBody;
+
+        private Pending(String locationQuery, String etag, String lastModified,
+                        int julianStartDay, File tempBody) {
+            mLocationQuery = locationQuery;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mJulianStartDay = julianStartDay;
+            mTempBody = tempBody;
+        }
+
+        /**
+         * Makes the recorded body and its validators the current entry for the location.
+         */
+        void commit() {
+            try {
+                // Without its meta file an entry is ignored, so a crash part way through
+                // leaves no entry rather than a body paired with the wrong validators
+                file(mLocationQuery, META_SUFFIX).delete();
+                File body = file(mLocationQuery, BODY_SUFFIX);
+                if (!mTempBody.renameTo(body)) {
+                    throw new IOException("Unable to rename " + mTempBody + " to " + body);
+                }
+                writeMeta(mLocationQuery, mEtag, mLastModified, mJulianStartDay);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to store forecast", e);
+                remove(mLocationQuery);
+            }
+        }
+
+        void discard() {
+            mTempBody.delete();
+        }
+    }
+
+    /**
+     * Copies everything read through it into a temporary body file.  Call {@link #finish()}
+     * once the response has been fully read and parsed, or {@link #close()} alone to drop it.
+     */
+    final class Recorder extends FilterInputStream {
+        private final String mLocationQuery;
+        private final String mEtag;
+        private final String mLastModified;
+        private final int mJulianStartDay;
+        private final File mTempBody;
+        private OutputStream mOut;
+
+        private Recorder(InputStream in, String locationQuery, String etag, String lastModified,
+                         int julianStartDay) throws IOException {
+            super(in);
+            mLocationQuery = locationQuery;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mJulianStartDay = julianStartDay;
+            mTempBody = file(locationQuery, BODY_SUFFIX + TEMP_SUFFIX);
+            mOut = new BufferedOutputStream(new FileOutputStream(mTempBody));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mOut != null) {
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipping would leave holes in the recorded body
+            throw new IOException("skip not supported while recording");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Drains whatever the parser didn't read and closes the recorded body, which is kept
+         * until the returned response is committed or discarded.
+         */
+        Pending finish() throws IOException {
+            if (mOut == null) {
+                throw new IOException("Forecast recording already finished");
+            }
+            byte[] drain = new byte[1024];
+            while (read(drain, 0, drain.length) != -1) {
+                // keep reading so the whole body is recorded
+            }
+            mOut.close();
+            mOut = null;
+            return new Pending(mLocationQuery, mEtag, mLastModified, mJulianStartDay,
+                    mTempBody);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (mOut != null) {
+                    // never committed, so throw the partial body away
+                    try {
+                        mOut.close();
+                    } finally {
+                        mOut = null;
+                        mTempBody.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    ForecastResponseCache(Context context) {
+        this(new File(context.getCacheDir(), CACHE_DIR));
+    }
+
+    ForecastResponseCache(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * @return the cached response for this location, or null if there is none usable
+     */
+    Entry get(String locationQuery) {
+        File meta = file(locationQuery, META_SUFFIX);
+        File body = file(locationQuery, BODY_SUFFIX);
+        if (!meta.exists() || !body.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(meta));
+            if (in.readInt() != META_VERSION || !locationQuery.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = readOptionalString(in);
+            String lastModified = readOptionalString(in);
+            int julianStartDay = in.readInt();
+            return new Entry(etag, lastModified, julianStartDay, body);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cached forecast for " + locationQuery, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Wraps the response body so it is recorded as it is parsed.  If the response carries no
+     * validators there is nothing to revalidate with later, so the stream is returned as is and
+     * any old entry for the location is dropped.
+     */
+    InputStream record(String locationQuery, HttpURLConnection connection, InputStream in,
+                       int julianStartDay) {
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            remove(locationQuery);
+            return in;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDir);
+            return in;
+        }
+        try {
+            return new Recorder(in, locationQuery, etag, lastModified, julianStartDay);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to record forecast for " + locationQuery, e);
+            return in;
+        }
+    }
+
+    /**
+     * Finishes recording the body if <code>in</code> came from {@link #record}.
+     *
+     * @return the response to commit once its forecast is stored, or null if there is none
+     */
+    Pending finish(InputStream in) {
+        if (in instanceof Recorder) {
+            try {
+                return ((Recorder) in).finish();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to record forecast", e);
+            }
+        }
+        return null;
+    }
+
+    void remove(String locationQuery) {
+        file(locationQuery, META_SUFFIX).delete();
+        file(locationQuery, BODY_SUFFIX).delete();
+    }
+
+    void clear() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    private void writeMeta(String locationQuery, String etag, String lastModified,
+                           int julianStartDay) throws IOException {
+        File temp = file(locationQuery, META_SUFFIX + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(META_VERSION);
+            out.writeUTF(locationQuery);
+            writeOptionalString(out, etag);
+            writeOptionalString(out, lastModified);
+            out.writeInt(julianStartDay);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file(locationQuery, META_SUFFIX))) {
+            throw new IOException("Unable to store validators for " + locationQuery);
+        }
+    }
+
+    private File file(String locationQuery, String suffix) {
+        try {
+            return new File(mDir, URLEncoder.encode(locationQuery, "UTF-8") + suffix);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+}
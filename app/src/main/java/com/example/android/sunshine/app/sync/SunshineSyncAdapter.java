@@ -35,34 +35,30 @@ import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshine.app.wearable.MyWearableListenerService;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.MessageApi;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+import com.example.android.sunshine.app.wearable.WearablePushPipeline;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
-        implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
-    private static final String TAG = "SunshineWatchFace";
 
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -97,30 +93,152 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    private GoogleApiClient mGoogleApiCLient;
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private final ForecastResponseCache mResponseCache;
+    private int mMaxConcurrentFetches;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
-        mGoogleApiCLient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
+        mResponseCache = new ForecastResponseCache(context);
+        mMaxConcurrentFetches = context.getResources().getInteger(R.integer.sync_max_concurrent_fetches);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        syncLocations(Uri.parse(FORECAST_BASE_URL), Utility.getTrackedLocations(getContext()));
+    }
 
+    /**
+     * Sets how many forecasts {@link #syncLocations} downloads at the same time.
+     */
+    void setMaxConcurrentFetches(int maxConcurrentFetches) {
+        mMaxConcurrentFetches = maxConcurrentFetches;
+    }
+
+    /**
+     * Same as {@link #syncLocations} for a single location.
+     */
+    void syncLocation(Uri forecastBaseUri, String locationQuery) {
+        syncLocations(forecastBaseUri, Collections.singletonList(locationQuery));
+    }
+
+    /**
+     * Fetches the forecast for every location from the given OWM endpoint, at most
+     * mMaxConcurrentFetches at a time, then stores all of them in one provider transaction, so
+     * observers hear about the sync once.  Forecasts the server says haven't changed since the
+     * last sync aren't written at all.  A location whose fetch fails is reported as
+     * LOCATION_STATUS_SERVER_DOWN without holding up the others.
+     *
+     * @param forecastBaseUri the OWM daily forecast endpoint
+     * @param locationQueries the location settings to fetch the forecast for; the location
+     *                        status reported in the preferences is the one of the first
+     */
+    void syncLocations(final Uri forecastBaseUri, List<String> locationQueries) {
+        int threads = Math.max(1, Math.min(mMaxConcurrentFetches, locationQueries.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<FetchResult>> fetches = new ArrayList<>(locationQueries.size());
+        List<FetchResult> results = new ArrayList<>(locationQueries.size());
+        boolean handedOff = false;
+        try {
+            for (final String locationQuery : locationQueries) {
+                fetches.add(executor.submit(new Callable<FetchResult>() {
+                    @Override
+                    public FetchResult call() {
+                        return fetchForecast(forecastBaseUri, locationQuery);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < fetches.size(); i++) {
+                results.add(collectFetch(fetches.get(i), locationQueries.get(i)));
+            }
+            // storeForecasts commits or discards every response it is handed
+            handedOff = true;
+            storeForecasts(results);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            if (!handedOff) {
+                discardResponses(results, fetches);
+            }
+        }
+    }
+
+    /**
+     * Waits for one fetch, turning a fetch that threw into a failed result for its location.
+     */
+    private FetchResult collectFetch(Future<FetchResult> fetch, String locationQuery)
+            throws InterruptedException {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error fetching forecast for " + locationQuery, e.getCause());
+            return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
+        }
+    }
+
+    /**
+     * Throws away the recorded responses of a sync that stopped before storing them: those
+     * collected, and those of fetches that had finished by then.
+     */
+    private void discardResponses(List<FetchResult> results, List<Future<FetchResult>> fetches) {
+        for (int i = 0; i < fetches.size(); i++) {
+            FetchResult result = null;
+            if (i < results.size()) {
+                result = results.get(i);
+            } else if (fetches.get(i).isDone() && !fetches.get(i).isCancelled()) {
+                try {
+                    result = fetches.get(i).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // Done, so get() doesn't block; a failed fetch recorded nothing to keep
+                }
+            }
+            if (result != null && result.response != null) {
+                result.response.discard();
+            }
+        }
+    }
+
+    /**
+     * The outcome of fetching one location's forecast.
+     */
+    private static final class FetchResult {
+        final String locationQuery;
+        final @LocationStatus int status;
+        // The forecast to store, or null if there is nothing to store
+        final ForecastJsonParser forecast;
+        // The response to cache once the forecast is stored, or null
+        final ForecastResponseCache.Pending response;
+
+        FetchResult(String locationQuery, @LocationStatus int status,
+                    ForecastJsonParser forecast) {
+            this(locationQuery, status, forecast, null);
+        }
+
+        FetchResult(String locationQuery, @LocationStatus int status,
+                    ForecastJsonParser forecast, ForecastResponseCache.Pending response) {
+            this.locationQuery = locationQuery;
+            this.status = status;
+            this.forecast = forecast;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Downloads and parses the forecast for one location.  Runs on the sync executor, so it
+     * must not touch the provider except to read.
+     */
+    private FetchResult fetchForecast(Uri forecastBaseUri, String locationQuery) {
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        InputStream inputStream = null;
 
         String format = "json";
         String units = "metric";
@@ -130,15 +248,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
             final String DAYS_PARAM = "cnt";
             final String API_KEY_PARAM = "APPID";
 
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+            Uri builtUri = forecastBaseUri.buildUpon()
                     .appendQueryParameter(QUERY_PARAM, locationQuery)
                     .appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
@@ -151,231 +267,252 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             // Create the request to OpenWeatherMap, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
+
+            // If we have the previous response, only ask for the body if it has changed
+            ForecastResponseCache.Entry cached = mResponseCache.get(locationQuery);
+            if (cached != null) {
+                cached.addValidators(urlConnection);
+            }
             urlConnection.connect();
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            if (cached != null
+                    && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (hasWeatherForLocation(locationQuery)) {
+                    // Nothing changed upstream and we still have the rows, so there's nothing to
+                    // write and nobody to tell
+                    Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                    return new FetchResult(locationQuery, LOCATION_STATUS_OK, null);
+                }
+                // The database lost the rows (e.g. it was cleared), so replay the cached body
+                inputStream = cached.openBody();
+                ForecastJsonParser forecast = parseForecast(inputStream, cached.julianStartDay);
+                if (forecast == null) {
+                    mResponseCache.remove(locationQuery);
+                    return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
+                }
+                return checkForecast(locationQuery, forecast);
+            }
+
+            inputStream = urlConnection.getInputStream();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+                return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
             }
 
-            if (buffer.length() == 0) {
+            int julianStartDay = getJulianStartDay();
+            inputStream = mResponseCache.record(locationQuery, urlConnection, inputStream,
+                    julianStartDay);
+            ForecastJsonParser forecast = parseForecast(inputStream, julianStartDay);
+            if (forecast == null) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+                return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
+            }
+            if (forecast.messageCode == HttpURLConnection.HTTP_OK) {
+                // Cached only once storeForecasts has written it
+                return new FetchResult(locationQuery, LOCATION_STATUS_OK, forecast,
+                        mResponseCache.finish(inputStream));
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            return checkForecast(locationQuery, forecast);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_INVALID, null);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
         }
-        return;
+    }
+
+    private static FetchResult checkForecast(String locationQuery, ForecastJsonParser forecast) {
+        // do we have an error?
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return new FetchResult(locationQuery, LOCATION_STATUS_OK, forecast);
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return new FetchResult(locationQuery, LOCATION_STATUS_INVALID, null);
+            default:
+                return new FetchResult(locationQuery, LOCATION_STATUS_SERVER_DOWN, null);
+        }
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     *
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the julian day of the first day in the forecast
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    private static int getJulianStartDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    /**
+     * Parses a forecast response body.  The stream is not closed here.
+     *
+     * @return the parsed forecast, or null if the body was empty
+     */
+    private static ForecastJsonParser parseForecast(InputStream inputStream, int julianStartDay)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Pull the forecast straight off the stream, without ever holding the whole
+            // response in memory.  JsonReader buffers internally, so no BufferedReader.
+            return ForecastJsonParser.parse(new InputStreamReader(inputStream, "UTF-8"),
+                    julianStartDay);
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        // Read the input stream into a String
+        Reader reader = new InputStreamReader(inputStream);
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        if (buffer.length() == 0) {
+            return null;
+        }
+        return ForecastJsonParser.parse(buffer.toString(), julianStartDay);
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * @return true if the database holds a forecast for today or later for this location
+     */
+    private boolean hasWeatherForLocation(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Resolves the location of every fetched forecast and writes all their rows to the
+     * database in one transaction, then lets everything that shows weather know about it.
+     */
+    private void storeForecasts(List<FetchResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
 
+        int received = 0;
+        int changed = 0;
+        boolean stored = false;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            ArrayList<ContentValues> rows = new ArrayList<>();
+            for (FetchResult result : results) {
+                if (result.forecast == null) {
+                    if (result.status != LOCATION_STATUS_OK) {
+                        Log.w(LOG_TAG, "No forecast for " + result.locationQuery +
+                                ", status " + result.status);
+                    }
+                    continue;
                 }
+                ForecastJsonParser forecast = result.forecast;
+                long locationId = addLocation(result.locationQuery, forecast.cityName,
+                        forecast.cityLatitude, forecast.cityLongitude);
+                forecast.setLocationId(locationId);
+                rows.addAll(forecast.rows);
+                received += forecast.rows.size();
             }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
             // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
+            if (received > 0) {
                 // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                Time dayTime = new Time();
+                long deleteBefore = dayTime.setJulianDay(getJulianStartDay() - 1);
+
+                // only rows whose values changed are written, and counted
+                changed = writeWeather(rows.toArray(new ContentValues[rows.size()]),
+                        deleteBefore);
+            }
+            stored = true;
+        } finally {
+            // A response's validators only become current once its rows are stored; if the
+            // write failed, the next sync downloads the forecast again instead of a 304
+            for (FetchResult result : results) {
+                if (result.response == null) {
+                    continue;
+                }
+                if (stored) {
+                    result.response.commit();
+                } else {
+                    result.response.discard();
+                }
+            }
+        }
 
+        if (received > 0) {
+            if (changed > 0) {
                 updateWidgets();
                 updateMuzei();
-                notifyWeather();
-                // GoogleApiClient should connect and then if connected, update the wearable
-                mGoogleApiCLient.connect();
+                updateWearable(results.get(0).forecast);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            notifyWeather();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " Locations, " + received +
+                " Received, " + changed + " Changed");
+        setLocationStatus(getContext(), results.get(0).status);
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Upserts the rows and deletes everything dated on or before <code>deleteBefore</code>.
+     *
+     * @return the number of rows inserted, updated or deleted; before Honeycomb, where the
+     *         provider can't be asked for the split, every row counts as changed
+     */
+    private int writeWeather(ContentValues[] rows, long deleteBefore) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // One call, so one transaction and one change notification for the whole sync
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES, rows);
+            extras.putLong(WeatherContract.WeatherEntry.EXTRA_DELETE_BEFORE, deleteBefore);
+            Bundle counts = resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.METHOD_UPSERT, null, extras);
+            return counts.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED)
+                    + counts.getInt(WeatherContract.WeatherEntry.EXTRA_UPDATED)
+                    + counts.getInt(WeatherContract.WeatherEntry.EXTRA_DELETED);
         }
+
+        // Unchanged rows still aren't rewritten, but bulkInsert counts them
+        int changed = resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, rows);
+        changed += resolver.delete(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] {Long.toString(deleteBefore)});
+        return changed;
     }
 
     private void updateWidgets() {
@@ -504,42 +641,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     /**
-     * This updates the wearable if one is connected with the current forecast for today by
-     * triggering <code>MyWearableListenerService</code> to start
+     * Hands today's forecast for the preferred location straight from the rows just fetched to
+     * the wearable push pipeline, which sends it to any connected watch.
      */
-    private void updateWearable(){
-        if(mGoogleApiCLient.isConnected()) {
-            new Thread() {
-                @Override
-                public void run() {
-                    NodeApi.GetLocalNodeResult getLocalNodeResult =
-                            Wearable.NodeApi.getLocalNode(mGoogleApiCLient).await();
-
-                    Node localNode = getLocalNodeResult.getNode();
-
-                    Wearable.MessageApi.sendMessage(
-                            mGoogleApiCLient,
-                            localNode.getId(),
-                            MyWearableListenerService.WEARABLE_MSG_PATH,
-                            MyWearableListenerService.WEARABLE_RDY_MSG.getBytes()).await();
-
-                    mGoogleApiCLient.disconnect();
-                }
-            }.start();
+    private void updateWearable(ForecastJsonParser preferredForecast) {
+        if (preferredForecast == null || preferredForecast.rows.isEmpty()) {
+            // nothing new for the location the watch shows
+            return;
         }
-    }
-
-    @Override  // GoogleApiClient.ConnectionCallbacks
-    public void onConnected(Bundle bundle) {
-        updateWearable();
-    }
-
-    @Override  // GoogleApiClient.ConnectionCallbacks
-    public void onConnectionSuspended(int cause) {
-    }
-
-    @Override  // GoogleApiClient.OnConnectionFailedListener
-    public void onConnectionFailed(ConnectionResult result) {
+        WearablePushPipeline.getInstance(getContext()).push(preferredForecast.rows);
     }
 
     /**
@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app.wearable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of which forecast each wearable holds, and sends each one only what it is
+ * missing: nothing if it is up to date, the changed bytes if the phone knows what it holds,
+ * the whole message otherwise.  An update is sent again until the wearable acknowledges it, up
+ * to MAX_ATTEMPTS times.  A wearable that asks while up to date is told so once, so it can
+ * count its forecast as fresh.
+ * <p>
+ * Not thread safe; the {@link WearablePushPipeline} thread owns it.
+ */
+class ForecastDelivery {
+    // Sends of one update to one wearable before giving up until the forecast changes or the
+    // wearable asks again
+    static final int MAX_ATTEMPTS = 3;
+
+    private static class NodeState {
+        // The checksum of the message the node holds, and the message itself if the phone
+        // still has it
+        long heldChecksum = ForecastUpdate.NO_CHECKSUM;
+        byte[] heldMessage;
+        // The last update sent to the node, and how often
+        int sentSequence;
+        int attempts;
+        // Whether the node asked for the forecast since it was last sent something
+        boolean requested;
+    }
+
+    private final WearableTransport mTransport;
+    private final Map<String, NodeState> mNodes = new HashMap<>();
+
+    private byte[] mMessage;
+    private long mChecksum = ForecastUpdate.NO_CHECKSUM;
+    private int mSequence;
+
+    ForecastDelivery(WearableTransport transport) {
+        mTransport = transport;
+        // Carries on from the sequence numbers issued before the app last stopped
+        mSequence = (int) (System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Sets the forecast to deliver.  It gets a new sequence number only if it differs from
+     * the last one.
+     */
+    void setMessage(byte[] message) {
+        long checksum = ForecastUpdate.checksum(message);
+        if (mMessage != null && checksum == mChecksum) {
+            return;
+        }
+        mMessage = message;
+        mChecksum = checksum;
+        mSequence++;
+    }
+
+    /**
+     * @return how many wearables the delivery keeps state for
+     */
+    int getNodeCount() {
+        return mNodes.size();
+    }
+
+    /**
+     * Records what a wearable says it holds.
+     */
+    void onStatus(String nodeId, ForecastUpdate.Status status) {
+        NodeState node = getNode(nodeId);
+        if (status.checksum == mChecksum) {
+            node.heldMessage = mMessage;
+        } else {
+            if (status.checksum != node.heldChecksum) {
+                node.heldMessage = null;
+            }
+            // The wearable holds something newer than the phone has sent since it started,
+            // e.g. after the clock went back; stamp the current forecast above it
+            if (mMessage != null && !ForecastUpdate.isNewer(mSequence, status.sequence)) {
+                mSequence = status.sequence + 1;
+            }
+        }
+        node.heldChecksum = status.checksum;
+        if (status.request) {
+            node.attempts = 0;
+            node.requested = true;
+        }
+    }
+
+    /**
+     * Sends the current forecast to every connected wearable that doesn't hold it yet, and a
+     * confirmation to each one that asked while holding it, all in one batch.
+     *
+     * @return true if any wearable was sent an update it hasn't acknowledged
+     */
+    boolean deliver() {
+        List<String> connected = mTransport.getConnectedNodes();
+        // Forget wearables that went away; one that comes back is sent the whole forecast
+        mNodes.keySet().retainAll(connected);
+        if (mMessage == null) {
+            return false;
+        }
+        Map<String, byte[]> updates = new LinkedHashMap<>();
+        // Confirmations aren't waited on; a lost one is made up by the wearable's next request
+        boolean awaitingAck = false;
+        for (String nodeId : connected) {
+            NodeState node = getNode(nodeId);
+            boolean requested = node.requested;
+            node.requested = false;
+            if (node.heldChecksum == mChecksum) {
+                if (requested) {
+                    // Up to date; a delta that changes nothing tells the wearable so
+                    byte[] confirmation = ForecastUpdate.encodeDelta(mSequence, mMessage, mMessage);
+                    updates.put(nodeId, confirmation != null ? confirmation
+                            : ForecastUpdate.encodeFull(mSequence, mMessage));
+                }
+                continue;
+            }
+            if (node.sentSequence != mSequence) {
+                node.sentSequence = mSequence;
+                node.attempts = 0;
+            } else if (node.attempts >= MAX_ATTEMPTS) {
+                continue;
+            }
+
+            byte[] update = null;
+            if (node.heldMessage != null) {
+                update = ForecastUpdate.encodeDelta(mSequence, node.heldMessage, mMessage);
+            }
+            if (update == null) {
+                update = ForecastUpdate.encodeFull(mSequence, mMessage);
+            }
+            node.attempts++;
+            updates.put(nodeId, update);
+            awaitingAck = true;
+        }
+        if (!updates.isEmpty()) {
+            mTransport.sendMessages(MyWearableListenerService.WEARABLE_MSG_PATH, updates);
+        }
+        return awaitingAck;
+    }
+
+    private NodeState getNode(String nodeId) {
+        NodeState node = mNodes.get(nodeId);
+        if (node == null) {
+            node = new NodeState();
+            mNodes.put(nodeId, node);
+        }
+        return node;
+    }
+}
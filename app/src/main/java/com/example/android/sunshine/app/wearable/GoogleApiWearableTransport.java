@@ -0,0 +1,105 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link WearableTransport} over the Wearable <code>NodeApi</code> and
+ * <code>MessageApi</code>.  The connected nodes are looked up once per connection and then
+ * kept current by <code>NodeListener</code> callbacks, so a send doesn't begin with a lookup.
+ * The client must be connected, and {@link #onConnected} called, before anything is sent.
+ */
+class GoogleApiWearableTransport implements WearableTransport, NodeApi.NodeListener {
+    private static final String TAG = GoogleApiWearableTransport.class.getSimpleName();
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    // Written by the listener callbacks as well as the pipeline thread
+    private final Set<String> mNodeIds = new HashSet<>();
+
+    GoogleApiWearableTransport(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    /**
+     * Starts tracking the connected nodes.  Blocks on one lookup.
+     */
+    void onConnected() {
+        // Listen first, so no change is missed between the lookup and the listener
+        Wearable.NodeApi.addListener(mGoogleApiClient, this);
+        NodeApi.GetConnectedNodesResult nodesList =
+                Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
+        synchronized (mNodeIds) {
+            mNodeIds.clear();
+            for (Node node : nodesList.getNodes()) {
+                mNodeIds.add(node.getId());
+            }
+        }
+    }
+
+    /**
+     * Stops tracking the connected nodes, before the client disconnects.
+     */
+    void onDisconnecting() {
+        Wearable.NodeApi.removeListener(mGoogleApiClient, this);
+        synchronized (mNodeIds) {
+            mNodeIds.clear();
+        }
+    }
+
+    @Override  // NodeApi.NodeListener
+    public void onPeerConnected(Node node) {
+        synchronized (mNodeIds) {
+            mNodeIds.add(node.getId());
+        }
+    }
+
+    @Override  // NodeApi.NodeListener
+    public void onPeerDisconnected(Node node) {
+        synchronized (mNodeIds) {
+            mNodeIds.remove(node.getId());
+        }
+    }
+
+    @Override
+    public List<String> getConnectedNodes() {
+        synchronized (mNodeIds) {
+            return new ArrayList<>(mNodeIds);
+        }
+    }
+
+    @Override
+    public int sendMessages(String path, Map<String, byte[]> messages) {
+        // Issue every send before waiting on any, so the nodes are sent to in parallel
+        Map<String, PendingResult<MessageApi.SendMessageResult>> results =
+                new LinkedHashMap<>(messages.size());
+        for (Map.Entry<String, byte[]> message : messages.entrySet()) {
+            results.put(message.getKey(), Wearable.MessageApi.sendMessage(mGoogleApiClient,
+                    message.getKey(), path, message.getValue()));
+        }
+
+        int sent = 0;
+        for (Map.Entry<String, PendingResult<MessageApi.SendMessageResult>> result
+                : results.entrySet()) {
+            if (result.getValue().await().getStatus().isSuccess()) {
+                sent++;
+            } else {
+                Log.w(TAG, "Unable to send to " + result.getKey());
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,346 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pushes the forecast for the next few days to every connected wearable.  All the work happens
+ * on one long-lived thread that owns a single <code>GoogleApiClient</code>, fed by a bounded
+ * {@link WorkQueue}: pushes made while the client is disconnected wait for it to connect, and
+ * pushes made before the previous one went out are coalesced, since only the latest forecast
+ * matters to the watch.  So are statuses from a watch that arrive faster than they are handled.
+ * If Play Services can't be reached the forecast is kept and the connection retried, backing
+ * off up to RECONNECT_MAX_MS.  The client is let go after a while without pushes and
+ * reconnected on demand.
+ */
+public class WearablePushPipeline implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener, Handler.Callback {
+    private static final String TAG = "SunshineWatchFace";
+
+    // Drop the Play Services connection after this long without pushes
+    private static final long IDLE_DISCONNECT_MS = 5 * 60 * 1000;
+
+    // Send an update again if the watch hasn't acknowledged it by then
+    private static final long ACK_TIMEOUT_MS = 30 * 1000;
+
+    // Wait before connecting again after a failure, doubling each time up to the maximum
+    private static final long RECONNECT_MIN_MS = 30 * 1000;
+    private static final long RECONNECT_MAX_MS = 30 * 60 * 1000;
+
+    // Pushes collapse into one; statuses collapse per watch, so this is only reached by a
+    // burst from many watches
+    private static final int WORK_QUEUE_CAPACITY = 16;
+
+    private static final int MSG_DISCONNECT = 1;
+    private static final int MSG_RETRY = 2;
+
+    // The work queue key of a push; statuses are keyed by node id
+    private static final Object KEY_PUSH = new Object();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_DATE = 3;
+
+    private static WearablePushPipeline sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final WorkQueue mQueue;
+    private final GoogleApiClient mGoogleApiClient;
+    private final GoogleApiWearableTransport mTransport;
+    private final ForecastDelivery mDelivery;
+
+    // How many days, from today on, each push carries
+    private final int mDays;
+
+    // The forecast waiting to be pushed, or null to read it from the provider.
+    // Only touched on the pipeline thread.
+    private List<ContentValues> mPending;
+    private boolean mHasPending;
+
+    // How long to wait after the next failure to connect.  Only touched on the pipeline thread.
+    private long mReconnectDelayMs = RECONNECT_MIN_MS;
+
+    // The latest forecast and watch statuses posted, waiting for their work queue task
+    private List<ContentValues> mQueuedPush;
+    private final Map<String, ForecastUpdate.Status> mQueuedStatuses = new HashMap<>();
+
+    private final Runnable mPushTask = new Runnable() {
+        @Override
+        public void run() {
+            List<ContentValues> pending;
+            synchronized (WearablePushPipeline.this) {
+                pending = mQueuedPush;
+                mQueuedPush = null;
+            }
+            if (pending == null) {
+                // Taken by the previous task, which was already running when this was posted
+                return;
+            }
+            mPending = pending;
+            mHasPending = true;
+            mHandler.removeMessages(MSG_DISCONNECT);
+            flush();
+        }
+    };
+
+    public static synchronized WearablePushPipeline getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearablePushPipeline(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearablePushPipeline(Context context) {
+        mContext = context;
+        mDays = Math.min(ForecastMessage.MAX_DAYS,
+                context.getResources().getInteger(R.integer.wearable_forecast_days));
+        HandlerThread thread = new HandlerThread("WearablePushPipeline");
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), this);
+        mQueue = new WorkQueue(thread.getLooper(), WORK_QUEUE_CAPACITY);
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .setHandler(mHandler)
+                .build();
+        mTransport = new GoogleApiWearableTransport(mGoogleApiClient);
+        mDelivery = new ForecastDelivery(mTransport);
+    }
+
+    /**
+     * Pushes forecast rows that were just written, without reading them back from the provider.
+     *
+     * @param days the weather rows for the preferred location, from today on
+     */
+    public void push(List<ContentValues> days) {
+        int count = Math.min(mDays, days.size());
+        List<ContentValues> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pending.add(new ContentValues(days.get(i)));
+        }
+        synchronized (this) {
+            // A newer forecast replaces one that hasn't gone out yet
+            mQueuedPush = pending;
+        }
+        mQueue.post(KEY_PUSH, mPushTask);
+    }
+
+    /**
+     * Handles a watch's status: an acknowledgement of an update, or a request for the forecast,
+     * which is read from the provider again and sent only if the watch doesn't hold it already.
+     */
+    public void onStatus(final String nodeId, ForecastUpdate.Status status) {
+        synchronized (mQueuedStatuses) {
+            ForecastUpdate.Status queued = mQueuedStatuses.get(nodeId);
+            if (queued != null && queued.request && !status.request) {
+                // Keep the request of the status this one overtakes
+                status = new ForecastUpdate.Status(status.sequence, status.checksum, true);
+            }
+            mQueuedStatuses.put(nodeId, status);
+        }
+        // If the queue is full the status waits in mQueuedStatuses for the watch's next one
+        mQueue.post(nodeId, new Runnable() {
+            @Override
+            public void run() {
+                handleStatus(nodeId);
+            }
+        });
+    }
+
+    private void handleStatus(String nodeId) {
+        ForecastUpdate.Status status;
+        synchronized (mQueuedStatuses) {
+            status = mQueuedStatuses.remove(nodeId);
+        }
+        if (status == null) {
+            return;
+        }
+        mDelivery.onStatus(nodeId, status);
+        if (status.request) {
+            // Read the forecast again, in case e.g. the units changed since it was sent
+            requestFromProvider();
+        }
+    }
+
+    @Override  // Handler.Callback
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_RETRY:
+                if (mGoogleApiClient.isConnected()) {
+                    deliver();
+                } else {
+                    requestFromProvider();
+                }
+                return true;
+            case MSG_DISCONNECT:
+                if (!mHasPending) {
+                    if (mGoogleApiClient.isConnected()) {
+                        mTransport.onDisconnecting();
+                    }
+                    mGoogleApiClient.disconnect();
+                    Log.d(TAG, "Work queue: " + mQueue);
+                }
+                return true;
+        }
+        return false;
+    }
+
+    @Override  // GoogleApiClient.ConnectionCallbacks
+    public void onConnected(Bundle bundle) {
+        mReconnectDelayMs = RECONNECT_MIN_MS;
+        mTransport.onConnected();
+        flush();
+    }
+
+    @Override  // GoogleApiClient.ConnectionCallbacks
+    public void onConnectionSuspended(int cause) {
+        // Play Services reconnects by itself; whatever is pending goes out then
+    }
+
+    @Override  // GoogleApiClient.OnConnectionFailedListener
+    public void onConnectionFailed(ConnectionResult result) {
+        if (result.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
+            // No wearable support on this phone, so there is nothing to deliver to
+            Log.w(TAG, "Wearable API unavailable: " + result);
+            mHasPending = false;
+            mPending = null;
+            return;
+        }
+        // Keep the forecast, which may have come from a sync hours before the next one, and
+        // try again; a push or watch request before then connects straight away
+        Log.w(TAG, "Unable to connect to Play Services, retrying in "
+                + mReconnectDelayMs / 1000 + "s: " + result);
+        mHandler.removeMessages(MSG_RETRY);
+        mHandler.sendEmptyMessageDelayed(MSG_RETRY, mReconnectDelayMs);
+        mReconnectDelayMs = Math.min(mReconnectDelayMs * 2, RECONNECT_MAX_MS);
+    }
+
+    /**
+     * Sends the pending forecast if the client is connected, or starts connecting.  Runs on
+     * the pipeline thread, so blocking on the Wearable API here is fine.
+     */
+    private void flush() {
+        if (!mHasPending) {
+            return;
+        }
+        if (!mGoogleApiClient.isConnected()) {
+            if (!mGoogleApiClient.isConnecting()) {
+                mGoogleApiClient.connect();
+            }
+            return;
+        }
+
+        List<ContentValues> forecast = mPending != null ? mPending : readForecast();
+        mPending = null;
+        mHasPending = false;
+        if (!forecast.isEmpty()) {
+            mDelivery.setMessage(buildForecastMessage(forecast));
+        }
+        deliver();
+    }
+
+    /**
+     * Queues a push of the forecast as the provider has it, unless a push is queued already.
+     */
+    private void requestFromProvider() {
+        if (!mHasPending) {
+            mPending = null;
+            mHasPending = true;
+        }
+        mHandler.removeMessages(MSG_DISCONNECT);
+        if (!mQueue.isWaiting(KEY_PUSH)) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends each watch what it is missing of the current forecast, and checks back for
+     * acknowledgements, or lets the client go once every watch is up to date.
+     */
+    private void deliver() {
+        mHandler.removeMessages(MSG_RETRY);
+        mHandler.removeMessages(MSG_DISCONNECT);
+        if (mDelivery.deliver()) {
+            mHandler.sendEmptyMessageDelayed(MSG_RETRY, ACK_TIMEOUT_MS);
+        } else {
+            mHandler.sendEmptyMessageDelayed(MSG_DISCONNECT, IDLE_DISCONNECT_MS);
+        }
+    }
+
+    /**
+     * @return the weather at the preferred location for up to mDays days from today on
+     */
+    private List<ContentValues> readForecast() {
+        List<ContentValues> forecast = new ArrayList<>(mDays);
+        String location = Utility.getPreferredLocation(mContext);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                location, System.currentTimeMillis());
+        Cursor data = mContext.getContentResolver().query(weatherForLocationUri,
+                FORECAST_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return forecast;
+        }
+        try {
+            while (forecast.size() < mDays && data.moveToNext()) {
+                ContentValues day = new ContentValues(4);
+                day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        data.getInt(INDEX_WEATHER_ID));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        data.getDouble(INDEX_MAX_TEMP));
+                day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        data.getDouble(INDEX_MIN_TEMP));
+                day.put(WeatherContract.WeatherEntry.COLUMN_DATE, data.getLong(INDEX_DATE));
+                forecast.add(day);
+            }
+            return forecast;
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Builds the {@link ForecastMessage} for the watch.  Temperatures go out in Celsius along
+     * with the user's unit preference, and the weather id instead of an icon; the watch
+     * formats the temperatures and picks the icon itself.
+     */
+    private byte[] buildForecastMessage(List<ContentValues> forecast) {
+        List<ForecastMessage.Day> days = new ArrayList<>(forecast.size());
+        for (ContentValues day : forecast) {
+            days.add(new ForecastMessage.Day(
+                    day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)));
+        }
+        return ForecastMessage.encode(Utility.isMetric(mContext), days);
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.android.sunshine.app.wearable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends messages to the wearables paired with this phone.  Implementations may block; they are
+ * only called on the {@link WearablePushPipeline} thread.
+ */
+public interface WearableTransport {
+    /**
+     * @return the ids of the wearables connected now, as last reported; this must not wait on
+     *         a round trip to find out
+     */
+    List<String> getConnectedNodes();
+
+    /**
+     * Sends each node its own message, all at once, and waits for every send to complete.
+     *
+     * @param messages the message for each node id
+     * @return how many of the nodes were handed their message, which doesn't mean it arrived
+     */
+    int sendMessages(String path, Map<String, byte[]> messages);
+}
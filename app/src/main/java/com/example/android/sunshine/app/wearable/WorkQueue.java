@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A bounded queue of work for one thread.  Work posted under a key that already has a task
+ * waiting collapses into that task, so a task should read the latest state when it runs rather
+ * than carry it.  Work posted while <code>capacity</code> tasks are waiting is dropped.  The
+ * depth of the queue and the counts of collapsed and dropped work are kept, so that bursts show
+ * up in the logs.
+ * <p>
+ * The watch keeps an identical copy of this class; change both together.
+ */
+class WorkQueue {
+    private static final String TAG = "WorkQueue";
+
+    private final Handler mHandler;
+    private final int mCapacity;
+
+    // The keys of the tasks waiting to run
+    private final Set<Object> mWaiting = new HashSet<>();
+
+    private int mMaxDepth;
+    private int mCollapsedCount;
+    private int mDroppedCount;
+
+    WorkQueue(Looper looper, int capacity) {
+        mHandler = new Handler(looper);
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return true if the work will be done, by this task or by the one already waiting under
+     *         the same key; false if it was dropped
+     */
+    boolean post(final Object key, final Runnable task) {
+        synchronized (this) {
+            if (mWaiting.contains(key)) {
+                mCollapsedCount++;
+                return true;
+            }
+            if (mWaiting.size() >= mCapacity) {
+                mDroppedCount++;
+                Log.w(TAG, "Dropped work for " + key + ": " + this);
+                return false;
+            }
+            mWaiting.add(key);
+            mMaxDepth = Math.max(mMaxDepth, mWaiting.size());
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WorkQueue.this) {
+                    mWaiting.remove(key);
+                }
+                task.run();
+            }
+        });
+        return true;
+    }
+
+    synchronized boolean isWaiting(Object key) {
+        return mWaiting.contains(key);
+    }
+
+    synchronized int getDepth() {
+        return mWaiting.size();
+    }
+
+    synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "depth " + mWaiting.size() + " of " + mCapacity + " (max " + mMaxDepth + "), " +
+                mCollapsedCount + " collapsed, " + mDroppedCount + " dropped";
+    }
+}
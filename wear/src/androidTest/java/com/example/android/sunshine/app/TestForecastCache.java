@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestForecastCache extends AndroidTestCase {
+
+    private File mFile;
+    private ForecastCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test_forecast.bin");
+        mCache = new ForecastCache(mFile);
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    public void testEmptyCache() {
+        assertNull(mCache.load());
+        assertEquals(Long.MAX_VALUE, mCache.getAgeMs(System.currentTimeMillis()));
+    }
+
+    public void testSaveAndLoad() {
+        byte[] message = ForecastMessage.encode(true, Collections.singletonList(
+                new ForecastMessage.Day(1419033600000L, 800, 21.0, 8.0)));
+        mCache.save(-7, message);
+
+        // A new instance, as after the face restarts
+        ForecastCache.Entry entry = new ForecastCache(mFile).load();
+        assertNotNull("Error: the saved forecast was not loaded", entry);
+        assertEquals(-7, entry.sequence);
+        assertTrue(Arrays.equals(message, entry.message));
+        ForecastMessage forecast = entry.forecast;
+        assertEquals(1, forecast.days.size());
+        assertEquals(800, forecast.days.get(0).weatherId);
+        assertEquals(21.0, forecast.days.get(0).high, 0.01);
+        assertEquals(8.0, forecast.days.get(0).low, 0.01);
+
+        long age = mCache.getAgeMs(System.currentTimeMillis());
+        assertTrue("Error: a forecast saved just now is " + age + " ms old", age < 60 * 1000);
+    }
+
+    public void testLoadForecastThatIsOver() {
+        // Three days that ended before today, as after the watch was away from its phone
+        long day = 24 * 60 * 60 * 1000;
+        long start = System.currentTimeMillis() - 10 * day;
+        byte[] message = ForecastMessage.encode(true, Arrays.asList(
+                new ForecastMessage.Day(start, 800, 21.0, 8.0),
+                new ForecastMessage.Day(start + day, 500, 18.0, 9.0),
+                new ForecastMessage.Day(start + 2 * day, 200, 15.0, 7.0)));
+        mCache.save(3, message);
+
+        ForecastCache.Entry entry = new ForecastCache(mFile).load();
+        assertNotNull("Error: a forecast that is over was not loaded", entry);
+        ForecastMessage forecast = entry.forecast;
+        // The face keeps showing the last day until the phone sends a newer forecast
+        assertEquals(2, forecast.getDayIndex(System.currentTimeMillis()));
+        assertEquals(200, forecast.days.get(2).weatherId);
+    }
+
+    public void testMarkFreshResetsAge() {
+        mCache.markFresh(System.currentTimeMillis());
+        assertFalse("Error: marking an empty cache fresh created it", mFile.exists());
+
+        mCache.save(1, ForecastMessage.encode(true, Collections.singletonList(
+                new ForecastMessage.Day(1419033600000L, 800, 21.0, 8.0))));
+        // Two hours on, with nothing new from the phone
+        long later = System.currentTimeMillis() + 2 * 60 * 60 * 1000;
+        assertTrue(mCache.getAgeMs(later) > 60 * 60 * 1000);
+
+        // The phone confirms the forecast is current
+        mCache.markFresh(later);
+        long age = mCache.getAgeMs(later);
+        assertTrue("Error: a confirmed forecast is " + age + " ms old", age < 60 * 1000);
+        assertEquals(1, mCache.load().sequence);
+    }
+
+    public void testDamagedCacheIsDiscarded() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{42, 1, 2});
+        out.close();
+
+        assertNull(mCache.load());
+        assertFalse("Error: the damaged file was kept", mFile.exists());
+    }
+}
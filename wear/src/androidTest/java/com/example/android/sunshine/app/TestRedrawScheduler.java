@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Replays an hour of interactive mode the way the engine's timer would, counting the
+    invalidate calls each schedule makes.
+ */
+public class TestRedrawScheduler extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestRedrawScheduler.class.getSimpleName();
+
+    static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    // An arbitrary moment partway through a minute, when the face becomes visible
+    static final long START = 1419033600000L + 23456L;
+
+    // What the engine did before: wake once a second whatever the face showed
+    static final long OLD_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+
+    public void testMinuteModeWakesOncePerMinute() {
+        RedrawScheduler scheduler = new RedrawScheduler();
+        int invalidates = simulateHour(scheduler);
+        int oldInvalidates = simulateOldTimer();
+        Log.i(LOG_TAG, "invalidate calls in an hour: " + oldInvalidates + " at 1 Hz, " +
+                invalidates + " minute-aligned");
+
+        // One as the face becomes visible, then one at the start of each minute
+        assertEquals(61, invalidates);
+        assertTrue("Error: expected a 50x reduction from " + oldInvalidates + " calls",
+                invalidates * 50 < oldInvalidates);
+    }
+
+    public void testSecondsModeWakesOncePerSecond() {
+        RedrawScheduler scheduler = new RedrawScheduler();
+        scheduler.setShowSeconds(true);
+        assertEquals(simulateOldTimer(), simulateHour(scheduler));
+    }
+
+    public void testWakesAtTheStartOfEachMinute() {
+        RedrawScheduler scheduler = new RedrawScheduler();
+        long now = START;
+        long lastMinute = now / RedrawScheduler.MINUTE_MS;
+        while (now < START + HOUR_MS) {
+            now += scheduler.getDelayMs(now);
+            assertEquals("Error: woke up at " + now + ", not at the start of a minute",
+                    0, now % RedrawScheduler.MINUTE_MS);
+            // No minute is skipped
+            assertEquals(lastMinute + 1, now / RedrawScheduler.MINUTE_MS);
+            lastMinute = now / RedrawScheduler.MINUTE_MS;
+        }
+    }
+
+    private static int simulateHour(RedrawScheduler scheduler) {
+        int invalidates = 0;
+        long now = START;
+        while (now <= START + HOUR_MS) {
+            invalidates++;
+            now += scheduler.getDelayMs(now);
+        }
+        return invalidates;
+    }
+
+    private static int simulateOldTimer() {
+        int invalidates = 0;
+        long now = START;
+        while (now <= START + HOUR_MS) {
+            invalidates++;
+            now += OLD_UPDATE_RATE_MS - (now % OLD_UPDATE_RATE_MS);
+        }
+        return invalidates;
+    }
+}
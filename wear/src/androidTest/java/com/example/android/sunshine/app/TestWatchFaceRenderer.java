@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    static final int FACE_SIZE = 320;
+    static final int WARM_UP_FRAMES = 10;
+
+    // Ten minutes of interactive frames, one a second
+    static final int FRAMES = 600;
+    static final long FRAME_INTERVAL_MS = 1000;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+    private long mNoon;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.setRound(true);
+        mRenderer.setForecast(Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888), " 8°", " 21°");
+
+        mCanvas = new Canvas(Bitmap.createBitmap(FACE_SIZE, FACE_SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, FACE_SIZE, FACE_SIZE);
+
+        // Far enough from midnight that the frames never cross into another day
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        mNoon = calendar.getTimeInMillis();
+    }
+
+    public void testDateFollowsLocaleChange() {
+        Locale original = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            mRenderer.draw(mCanvas, mBounds, mNoon);
+            String english = mRenderer.getDateText();
+
+            Locale.setDefault(Locale.FRANCE);
+            mRenderer.draw(mCanvas, mBounds, mNoon + FRAME_INTERVAL_MS);
+            String french = mRenderer.getDateText();
+            assertFalse("Error: the date stayed \"" + english + "\" after the locale changed",
+                    english.equals(french));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    public void testInteractiveDrawDoesNotAllocate() {
+        assertEquals("Error: interactive frames allocated", 0, countAllocations());
+    }
+
+    public void testAmbientDrawDoesNotAllocate() {
+        mRenderer.setAmbient(true, true);
+        assertEquals("Error: ambient frames allocated", 0, countAllocations());
+    }
+
+    public void testModeSwitchesReuseLayers() {
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+        mRenderer.setAmbient(true, false);
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+        mRenderer.setAmbient(true, true);
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+        assertEquals(3, mRenderer.getLayerBuildCount());
+
+        // Back and forth between modes, and from minute to minute, only copies the layers
+        for (int i = 0; i < FRAMES; i++) {
+            mRenderer.setAmbient(i % 3 != 0, i % 3 == 2);
+            mRenderer.draw(mCanvas, mBounds, mNoon + i * FRAME_INTERVAL_MS);
+        }
+        assertEquals("Error: a mode switch drew a layer again",
+                3, mRenderer.getLayerBuildCount());
+
+        // A new forecast changes every layer, but each is drawn only when it is next shown
+        mRenderer.setForecast(Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888), " 9°", " 22°");
+        mRenderer.setAmbient(false, true);
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+        mRenderer.draw(mCanvas, mBounds, mNoon);
+        assertEquals(4, mRenderer.getLayerBuildCount());
+    }
+
+    /*
+        Draws FRAMES frames, crossing a minute boundary every 60 of them, and returns how many
+        objects they allocated after the first frames had built the text.
+     */
+    private int countAllocations() {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            mRenderer.draw(mCanvas, mBounds, mNoon);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                mRenderer.draw(mCanvas, mBounds, mNoon + i * FRAME_INTERVAL_MS);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestWatchFaceStats extends AndroidTestCase {
+
+    public void testDisabledRecordsNothing() {
+        WatchFaceStats stats = new WatchFaceStats(false);
+        assertEquals(0, stats.startTiming());
+        stats.recordDraw(0, false);
+        stats.recordUpdate(0);
+        stats.recordInvalidate(WatchFaceStats.SOURCE_TIMER);
+
+        assertEquals(0, stats.getDrawCount(false));
+        assertEquals(0, stats.getUpdateCount());
+        assertEquals(0, stats.getInvalidateCount(WatchFaceStats.SOURCE_TIMER));
+    }
+
+    public void testEnabledAtRunTime() {
+        WatchFaceStats stats = new WatchFaceStats(false);
+        long untimed = stats.startTiming();
+        stats.setEnabled(true);
+        assertTrue(stats.isEnabled());
+        // A frame that started before recording did is not counted
+        stats.recordDraw(untimed, false);
+        stats.recordDraw(stats.startTiming(), false);
+        stats.recordInvalidate(WatchFaceStats.SOURCE_TIMER);
+        assertEquals(1, stats.getDrawCount(false));
+        assertEquals(1, stats.getInvalidateCount(WatchFaceStats.SOURCE_TIMER));
+
+        stats.setEnabled(false);
+        stats.recordInvalidate(WatchFaceStats.SOURCE_TIMER);
+        assertEquals(1, stats.getInvalidateCount(WatchFaceStats.SOURCE_TIMER));
+    }
+
+    public void testDrawsAreCountedByMode() {
+        WatchFaceStats stats = new WatchFaceStats(true);
+        for (int i = 0; i < 3; i++) {
+            stats.recordDraw(stats.startTiming(), false);
+        }
+        stats.recordDraw(stats.startTiming(), true);
+
+        assertEquals(3, stats.getDrawCount(false));
+        assertEquals(1, stats.getDrawCount(true));
+        long bucketed = 0;
+        for (int bucket = 0; bucket <= WatchFaceStats.BUCKET_LIMITS_US.length; bucket++) {
+            bucketed += stats.getDrawBucketCount(false, bucket);
+        }
+        assertEquals(3, bucketed);
+    }
+
+    public void testBuckets() {
+        assertEquals(0, WatchFaceStats.getBucket(0));
+        assertEquals(0, WatchFaceStats.getBucket(TimeUnit.MICROSECONDS.toNanos(499)));
+        assertEquals(1, WatchFaceStats.getBucket(TimeUnit.MICROSECONDS.toNanos(500)));
+        assertEquals(5, WatchFaceStats.getBucket(TimeUnit.MILLISECONDS.toNanos(15)));
+        assertEquals(WatchFaceStats.BUCKET_LIMITS_US.length,
+                WatchFaceStats.getBucket(TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    public void testDump() {
+        WatchFaceStats stats = new WatchFaceStats(true);
+        stats.recordDraw(stats.startTiming(), true);
+        stats.recordInvalidate(WatchFaceStats.SOURCE_TIME_TICK);
+        stats.recordInvalidate(WatchFaceStats.SOURCE_TIME_TICK);
+        stats.recordUpdate(stats.startTiming());
+
+        String dump = stats.dump(2048);
+        assertTrue(dump, dump.contains("ambient frames: 1"));
+        assertTrue(dump, dump.contains("interactive frames: 0"));
+        assertTrue(dump, dump.contains("time tick: 2"));
+        assertTrue(dump, dump.contains("forecast updates: 1"));
+        assertTrue(dump, dump.contains("bitmap memory: 2KB"));
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class TestWeatherIcons extends AndroidTestCase {
+
+    public void testIconsAreScaledAndKept() {
+        WeatherIcons icons = new WeatherIcons(mContext);
+        int iconSize = mContext.getResources().getDimensionPixelSize(R.dimen.forecast_icon_size);
+
+        for (int weatherId = 200; weatherId <= 804; weatherId++) {
+            Bitmap icon = icons.getIcon(weatherId);
+            if (WeatherIcons.getArtResourceForWeatherCondition(weatherId) == -1) {
+                assertNull("Error: weather id " + weatherId + " has no icon", icon);
+                continue;
+            }
+            assertNotNull("Error: no icon for weather id " + weatherId, icon);
+            assertEquals(iconSize, icon.getWidth());
+            assertEquals(iconSize, icon.getHeight());
+            assertSame("Error: the icon for weather id " + weatherId + " was decoded again",
+                    icon, icons.getIcon(weatherId));
+        }
+
+        // Conditions that share art share the bitmap
+        assertSame(icons.getIcon(500), icons.getIcon(520));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the last {@link ForecastMessage} the phone sent, so the face can draw a forecast as
+ * soon as it starts instead of waiting on a round trip to the phone.  The file holds the
+ * sequence number of the update that produced the message, then the message.
+ * <p>
+ * Nothing here is locked; the face keeps the calls apart by thread.  load runs on the main
+ * thread when the face is created, before any save is queued, and getAgeMs on the main thread
+ * after that.  save and markFresh run on the face's {@link WorkQueue} thread, one at a time.
+ * clear must not run while a save may be in progress, as it would delete the file from under
+ * the write.
+ */
+class ForecastCache {
+    private static final String TAG = "SunshineWatchFace";
+    private static final String FILE_NAME = "forecast.bin";
+
+    private static final int SEQUENCE_SIZE = 4;
+
+    static class Entry {
+        final int sequence;
+        final byte[] message;
+        final ForecastMessage forecast;
+
+        Entry(int sequence, byte[] message, ForecastMessage forecast) {
+            this.sequence = sequence;
+            this.message = message;
+            this.forecast = forecast;
+        }
+    }
+
+    private final AtomicFile mFile;
+
+    ForecastCache(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    ForecastCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * @return the last forecast saved, or null if there is none or it can't be read
+     */
+    Entry load() {
+        try {
+            byte[] data = mFile.readFully();
+            if (data.length < SEQUENCE_SIZE) {
+                throw new IOException("Cached forecast too short");
+            }
+            byte[] message = Arrays.copyOfRange(data, SEQUENCE_SIZE, data.length);
+            return new Entry(ByteBuffer.wrap(data).getInt(), message,
+                    ForecastMessage.decode(message));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            // Left by an older version or damaged; the phone will send a new one
+            Log.w(TAG, "Discarding cached forecast: " + e.getMessage());
+            mFile.delete();
+            return null;
+        }
+    }
+
+    void save(int sequence, byte[] message) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(ByteBuffer.allocate(SEQUENCE_SIZE).putInt(sequence).array());
+            out.write(message);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to cache forecast", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Records that the phone confirmed the cached forecast is current, so it counts as received
+     * at <code>now</code>.
+     */
+    void markFresh(long now) {
+        File file = mFile.getBaseFile();
+        if (file.exists() && !file.setLastModified(now)) {
+            Log.w(TAG, "Unable to mark cached forecast fresh");
+        }
+    }
+
+    /**
+     * @return how long ago the cached forecast was received or last confirmed, or
+     * Long.MAX_VALUE if there is none
+     */
+    long getAgeMs(long now) {
+        File file = mFile.getBaseFile();
+        if (!file.exists()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, now - file.lastModified());
+    }
+
+    void clear() {
+        mFile.delete();
+    }
+}
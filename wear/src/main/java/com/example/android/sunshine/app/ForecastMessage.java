@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The forecast message the phone sends to the watch.  It is a fixed, versioned binary layout
+ * (big-endian) rather than Java serialization, so the watch decodes it by reading a few fields
+ * out of the received array.  No image is sent: the watch has its own icons and picks one by
+ * weather id.
+ * <p>
+ * The message carries the next few days, so when midnight passes the watch moves on to the
+ * next day by itself instead of waiting for the phone.
+ *
+ * <pre>
+ *   offset size
+ *        0    1  version (VERSION)
+ *        1    1  flags (FLAG_METRIC)
+ *        2    1  number of days, 1 to MAX_DAYS
+ *        3  14n  the days, by date ascending:
+ *                   8  start of the day, millis since the epoch
+ *                   2  OWM weather id, unsigned
+ *                   2  max temperature, tenths of a degree Celsius, signed
+ *                   2  min temperature, tenths of a degree Celsius, signed
+ * </pre>
+ *
+ * The phone app keeps an identical copy of this class; change both together and bump VERSION
+ * when the layout changes.
+ */
+public final class ForecastMessage {
+    public static final int VERSION = 3;
+
+    // Show temperatures in Celsius; Fahrenheit otherwise
+    public static final int FLAG_METRIC = 1;
+
+    public static final int MAX_DAYS = 14;
+
+    static final int HEADER_SIZE = 3;
+    static final int DAY_SIZE = 14;
+
+    public static final class Day {
+        public final long date;
+        public final int weatherId;
+        public final double high;
+        public final double low;
+
+        public Day(long date, int weatherId, double high, double low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    public final boolean metric;
+    public final List<Day> days;
+
+    private ForecastMessage(boolean metric, List<Day> days) {
+        this.metric = metric;
+        this.days = Collections.unmodifiableList(days);
+    }
+
+    /**
+     * @return the index of the day to show at <code>now</code>: the last one that has begun, or
+     * the first if none has
+     */
+    public int getDayIndex(long now) {
+        int index = 0;
+        while (index + 1 < days.size() && days.get(index + 1).date <= now) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @param days 1 to MAX_DAYS days, by date ascending
+     */
+    public static byte[] encode(boolean metric, List<Day> days) {
+        if (days.isEmpty() || days.size() > MAX_DAYS) {
+            throw new IllegalArgumentException("Can't send " + days.size() + " days");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + days.size() * DAY_SIZE);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (metric ? FLAG_METRIC : 0));
+        buffer.put((byte) days.size());
+        for (Day day : days) {
+            buffer.putLong(day.date);
+            buffer.putShort((short) day.weatherId);
+            buffer.putShort(toTenths(day.high));
+            buffer.putShort(toTenths(day.low));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @throws IOException if the message is malformed or from another version
+     */
+    public static ForecastMessage decode(byte[] data) throws IOException {
+        if (data == null || data.length < HEADER_SIZE) {
+            throw new IOException("Forecast message too short");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported forecast message version " + version);
+        }
+        int flags = buffer.get();
+        int count = buffer.get() & 0xff;
+        if (count < 1 || count > MAX_DAYS || data.length != HEADER_SIZE + count * DAY_SIZE) {
+            throw new IOException("Bad forecast message: " + count + " days in " +
+                    data.length + " bytes");
+        }
+
+        List<Day> days = new ArrayList<>(count);
+        long lastDate = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long date = buffer.getLong();
+            if (date <= lastDate) {
+                throw new IOException("Forecast days out of order");
+            }
+            lastDate = date;
+            int weatherId = buffer.getShort() & 0xffff;
+            double high = buffer.getShort() / 10.0;
+            double low = buffer.getShort() / 10.0;
+            days.add(new Day(date, weatherId, high, low));
+        }
+        return new ForecastMessage((flags & FLAG_METRIC) != 0, days);
+    }
+
+    private static short toTenths(double temperature) {
+        long tenths = Math.round(temperature * 10);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+}
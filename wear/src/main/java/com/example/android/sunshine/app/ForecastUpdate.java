@@ -0,0 +1,253 @@
+package com.example.android.sunshine.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * How a {@link ForecastMessage} travels between the phone and the watch.  The phone stamps each
+ * new forecast with a sequence number and a CRC32 of the message, and sends either the whole
+ * message or, when the watch is known to hold an earlier one, only the byte ranges that changed.
+ * The watch answers with a {@link Status}: what it holds now, and whether it wants the
+ * forecast.  The phone sends nothing to a watch that already holds the current forecast, unless
+ * it asked, when it gets a delta with no patches to confirm that it is up to date.  The phone
+ * stops retrying once the watch has acknowledged an update.
+ *
+ * <pre>
+ *   update, phone to watch:
+ *        0    1  kind (KIND_FULL or KIND_DELTA)
+ *        1    4  sequence number
+ *        5    4  checksum of the message once the update is applied
+ *        9    4  checksum of the message a delta applies to, 0 for a full update
+ *       13       KIND_FULL: the message
+ *                KIND_DELTA: new message length (2), then patches of
+ *                            offset (2), length (2), bytes
+ *
+ *   status, watch to phone:
+ *        0    4  sequence number of the message held, 0 if none
+ *        4    4  checksum of the message held, 0 if none
+ *        8    1  flags: STATUS_REQUEST to ask for the forecast, else to acknowledge;
+ *                STATUS_NONE_HELD if the watch holds no message, as 0 is a valid checksum
+ * </pre>
+ *
+ * The phone app keeps an identical copy of this class; change both together.
+ */
+public final class ForecastUpdate {
+    public static final int KIND_FULL = 1;
+    public static final int KIND_DELTA = 2;
+
+    // The checksum of no message at all; never the checksum of one
+    public static final long NO_CHECKSUM = -1;
+
+    static final int HEADER_SIZE = 13;
+    static final int PATCH_HEADER_SIZE = 4;
+    static final int STATUS_SIZE = 9;
+
+    static final int STATUS_REQUEST = 0x01;
+    static final int STATUS_NONE_HELD = 0x02;
+
+    private static final int MAX_MESSAGE_SIZE = 0xffff;
+
+    public final int kind;
+    public final int sequence;
+    public final long checksum;
+    public final long baseChecksum;
+    private final byte[] mData;
+
+    private ForecastUpdate(int kind, int sequence, long checksum, long baseChecksum, byte[] data) {
+        this.kind = kind;
+        this.sequence = sequence;
+        this.checksum = checksum;
+        this.baseChecksum = baseChecksum;
+        mData = data;
+    }
+
+    /**
+     * @return the CRC32 of the message, or NO_CHECKSUM for null
+     */
+    public static long checksum(byte[] message) {
+        if (message == null) {
+            return NO_CHECKSUM;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(message);
+        return crc.getValue();
+    }
+
+    /**
+     * @return true if <code>a</code> was issued after <code>b</code>, allowing for wrap-around
+     */
+    public static boolean isNewer(int a, int b) {
+        return a - b > 0;
+    }
+
+    public static byte[] encodeFull(int sequence, byte[] message) {
+        checkSize(message);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + message.length);
+        putHeader(buffer, KIND_FULL, sequence, checksum(message), 0);
+        buffer.put(message);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the byte ranges of <code>message</code> that differ from <code>base</code>.
+     * Messages are fixed-width fields, so a changed temperature is a two byte patch.
+     *
+     * @return the delta, or null if it would be no smaller than a full update
+     */
+    public static byte[] encodeDelta(int sequence, byte[] base, byte[] message) {
+        checkSize(message);
+        ByteBuffer patches = ByteBuffer.allocate(2 + message.length * (1 + PATCH_HEADER_SIZE));
+        patches.putShort((short) message.length);
+
+        int i = 0;
+        while (i < message.length) {
+            if (i < base.length && base[i] == message[i]) {
+                i++;
+                continue;
+            }
+            // Extend the patch over unchanged bytes too, as long as they are fewer than the
+            // header a new patch would need
+            int end = i + 1;
+            int j = end;
+            while (j < message.length && j - end <= PATCH_HEADER_SIZE) {
+                boolean same = j < base.length && base[j] == message[j];
+                j++;
+                if (!same) {
+                    end = j;
+                }
+            }
+            patches.putShort((short) i);
+            patches.putShort((short) (end - i));
+            patches.put(message, i, end - i);
+            i = end;
+        }
+
+        int size = HEADER_SIZE + patches.position();
+        if (size >= HEADER_SIZE + message.length) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putHeader(buffer, KIND_DELTA, sequence, checksum(message), checksum(base));
+        buffer.put(patches.array(), 0, patches.position());
+        return buffer.array();
+    }
+
+    private static void putHeader(ByteBuffer buffer, int kind, int sequence, long checksum,
+                                  long baseChecksum) {
+        buffer.put((byte) kind);
+        buffer.putInt(sequence);
+        buffer.putInt((int) checksum);
+        buffer.putInt((int) baseChecksum);
+    }
+
+    private static void checkSize(byte[] message) {
+        if (message.length > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("Message of " + message.length + " bytes");
+        }
+    }
+
+    /**
+     * Reads the header of an update; {@link #apply} reads the rest.
+     *
+     * @throws IOException if it isn't an update
+     */
+    public static ForecastUpdate decode(byte[] data) throws IOException {
+        if (data == null || data.length < HEADER_SIZE) {
+            throw new IOException("Forecast update too short");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int kind = buffer.get();
+        if (kind != KIND_FULL && kind != KIND_DELTA) {
+            throw new IOException("Unknown forecast update kind " + kind);
+        }
+        int sequence = buffer.getInt();
+        long checksum = buffer.getInt() & 0xffffffffL;
+        long baseChecksum = buffer.getInt() & 0xffffffffL;
+        return new ForecastUpdate(kind, sequence, checksum, baseChecksum, data);
+    }
+
+    /**
+     * @param held the message the watch holds, or null
+     * @return the message this update leads to
+     * @throws IOException if it is a delta against something other than <code>held</code>, or
+     *                     the result doesn't match the checksum
+     */
+    public byte[] apply(byte[] held) throws IOException {
+        byte[] message;
+        if (kind == KIND_FULL) {
+            message = Arrays.copyOfRange(mData, HEADER_SIZE, mData.length);
+        } else {
+            if (held == null || checksum(held) != baseChecksum) {
+                throw new IOException("Forecast delta against a message not held");
+            }
+            message = applyPatches(held);
+        }
+        if (checksum(message) != checksum) {
+            throw new IOException("Forecast update checksum mismatch");
+        }
+        return message;
+    }
+
+    private byte[] applyPatches(byte[] held) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(mData, HEADER_SIZE, mData.length - HEADER_SIZE);
+        if (buffer.remaining() < 2) {
+            throw new IOException("Forecast delta truncated");
+        }
+        byte[] message = Arrays.copyOf(held, buffer.getShort() & 0xffff);
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < PATCH_HEADER_SIZE) {
+                throw new IOException("Forecast delta truncated");
+            }
+            int offset = buffer.getShort() & 0xffff;
+            int length = buffer.getShort() & 0xffff;
+            if (offset + length > message.length || length > buffer.remaining()) {
+                throw new IOException("Bad forecast delta patch at " + offset);
+            }
+            buffer.get(message, offset, length);
+        }
+        return message;
+    }
+
+    /**
+     * What the watch tells the phone after an update, or when it wants the forecast.
+     */
+    public static final class Status {
+        public final int sequence;
+        public final long checksum;
+        public final boolean request;
+
+        public Status(int sequence, long checksum, boolean request) {
+            this.sequence = sequence;
+            this.checksum = checksum;
+            this.request = request;
+        }
+
+        public byte[] encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(STATUS_SIZE);
+            buffer.putInt(sequence);
+            boolean noneHeld = checksum == NO_CHECKSUM;
+            buffer.putInt(noneHeld ? 0 : (int) checksum);
+            buffer.put((byte) ((request ? STATUS_REQUEST : 0) | (noneHeld ? STATUS_NONE_HELD : 0)));
+            return buffer.array();
+        }
+
+        /**
+         * @throws IOException if it isn't a status
+         */
+        public static Status decode(byte[] data) throws IOException {
+            if (data == null || data.length != STATUS_SIZE) {
+                throw new IOException("Bad watch status");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            int sequence = buffer.getInt();
+            long checksum = buffer.getInt() & 0xffffffffL;
+            int flags = buffer.get();
+            if ((flags & STATUS_NONE_HELD) != 0) {
+                checksum = NO_CHECKSUM;
+            }
+            return new Status(sequence, checksum, (flags & STATUS_REQUEST) != 0);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out when the watch face next looks different in interactive mode, so the engine
+ * wakes up only then.
+ * <p>
+ * The face shows hours and minutes, so the clock changes at the start of each minute, and the
+ * date changes at the start of one of them. Seconds mode changes it every second. A new forecast
+ * or a time zone change can't be predicted; the engine redraws as soon as they arrive instead.
+ */
+class RedrawScheduler {
+    static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long SECOND_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private boolean mShowSeconds;
+
+    void setShowSeconds(boolean showSeconds) {
+        mShowSeconds = showSeconds;
+    }
+
+    long getUpdateRateMs() {
+        return mShowSeconds ? SECOND_MS : MINUTE_MS;
+    }
+
+    /**
+     * Every time zone in use is offset from UTC by whole minutes, so local minutes start
+     * when UTC minutes do.
+     *
+     * @return how long after now the face next changes
+     */
+    long getDelayMs(long now) {
+        long rate = getUpdateRateMs();
+        return rate - (now % rate);
+    }
+}
@@ -16,22 +16,17 @@
 
 package com.example.android.sunshine.app;
 
+import android.Manifest;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
-import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
@@ -41,20 +36,20 @@ import android.view.WindowInsets;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Digital watch face with weather forecast. In ambient mode, the bitmap is not displayed.
@@ -63,17 +58,13 @@ import java.util.concurrent.TimeUnit;
 public class SunshineWatchFace extends CanvasWatchFaceService {
     private static final String TAG = "SunshineWatchFace";
     private static final String WEARABLE_MSG_PATH = "/wearable/data/sunshine/1726356709";
-    private static final String WEARABLE_RDY_MSG = "ready";
     private static final String TEMPERATURE_SPACING = " ";
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
 
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
-    /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
-     */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    // Work for the background thread collapses by key, so this is never reached in practice
+    private static final int WORK_QUEUE_CAPACITY = 4;
+    private static final String KEY_SAVE_FORECAST = "saveForecast";
+    private static final String KEY_MARK_FORECAST_FRESH = "markForecastFresh";
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
@@ -82,7 +73,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
     /**
      * EngineHandler is responsible for scheduling updates to the watch when in interactive mode
-     * based on the <code>INTERACTIVE_UPDATE_RATE_MS</code>
+     * at the times the <code>RedrawScheduler</code> works out
      */
     private static class EngineHandler extends Handler {
         private final WeakReference<SunshineWatchFace.Engine> mWeakReference;
@@ -121,13 +112,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                // The time zone or the clock changed, so the next minute starts at a
+                // different time
+                mRenderer.setTimeZone(TimeZone.getDefault());
+                updateTimer();
+                mStats.recordInvalidate(WatchFaceStats.SOURCE_TIME_CHANGE);
+                invalidate();
+            }
+        };
+        final BroadcastReceiver mDumpStatsReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent.hasExtra(WatchFaceStats.EXTRA_ENABLE)) {
+                    mStats.setEnabled(
+                            intent.getBooleanExtra(WatchFaceStats.EXTRA_ENABLE, false));
+                }
+                dumpStats();
             }
         };
-
-        static final String COLON_STRING = ":";
-        static final String HOUR_STRING = "00";
-        static final String TIME_STRING = "00:00";
 
         /**
          * This boolean(mSwitchedToThisWatchFace) determines if the onCreate was called
@@ -136,29 +138,53 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         boolean mLowBitAmbient;
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Paint mBackgroundPaint;
-        Paint mTimePaint;
-        Paint mMaxTempPaint;
-        Paint mMinTempPaint;
-        Paint mDateTextPaint;
-
-        Calendar mCalendar;
-        float mCenterXTimeOffset;
-        float mCenterYTimeOffset;
-        float mHourWidth;
-        float mColonWidth;
-        float mCenterXForecastOffset;
-        float mCenterYForecastOffset;
-        float mMaxTempWidth;
-        float mTempTextHalfHeight;
-        float mForecastBitmapHalfHeight;
-        int mForecastBitmapWidth;
-
+        WatchFaceRenderer mRenderer;
+        WatchFaceStats mStats;
+        final RedrawScheduler mRedrawScheduler = new RedrawScheduler();
+        ForecastCache mForecastCache;
+        // Keeps file writes off the UI thread
+        HandlerThread mWorkThread;
+        WorkQueue mWorkQueue;
+        // The forecast to write to mForecastCache next, if it hasn't been yet
+        final AtomicReference<ForecastCache.Entry> mUnsavedForecast = new AtomicReference<>();
+        final Runnable mSaveForecastTask = new Runnable() {
+            @Override
+            public void run() {
+                ForecastCache.Entry entry = mUnsavedForecast.getAndSet(null);
+                if (entry != null) {
+                    mForecastCache.save(entry.sequence, entry.message);
+                }
+            }
+        };
+        final Runnable mMarkForecastFreshTask = new Runnable() {
+            @Override
+            public void run() {
+                mForecastCache.markFresh(System.currentTimeMillis());
+            }
+        };
+        WeatherIcons mWeatherIcons;
+        long mForecastMaxAgeMs;
+        // The days the phone last sent, and when the day shown ends
+        ForecastMessage mForecast;
+        long mNextDayStart = Long.MAX_VALUE;
+        // The message mForecast came from and the sequence number of its update, which the
+        // phone's deltas apply to
+        byte[] mHeldMessage;
+        int mHeldSequence;
         GoogleApiClient mGoogleApiClient;
-        String mMinTemp;
-        String mMaxTemp;
-        Bitmap mForecastBitmap;
-        Boolean mAmbient=false;
+        // The phones connected now, kept current by the NodeListener callbacks so a status
+        // goes out without looking them up first
+        final Set<String> mPhoneNodes = new HashSet<>();
+        final ResultCallback<MessageApi.SendMessageResult> mSendResultCallback =
+                new ResultCallback<MessageApi.SendMessageResult>() {
+                    @Override
+                    public void onResult(MessageApi.SendMessageResult result) {
+                        if (!result.getStatus().isSuccess()) {
+                            Log.w(TAG, "Unable to send status to phone: " + result.getStatus());
+                        }
+                    }
+                };
+        boolean mAmbient = false;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -172,34 +198,33 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     .setHotwordIndicatorGravity(Gravity.BOTTOM | Gravity.CENTER_HORIZONTAL)
                     .build());
 
-            Resources resources = SunshineWatchFace.this.getResources();
-
-            // Retrieve specified offsets used to position time and forecast correctly
-            mCenterYTimeOffset = resources.getDimension(R.dimen.digital_y_time_offset);
-            mCenterYForecastOffset = resources.getDimension(R.dimen.digital_y_forecast_offset);
-
-            // Initialize background paint
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(ContextCompat.getColor(
-                    SunshineWatchFace.this, R.color.digital_background));
-
-            // Initialize time text paint for hour, colon, and minutes
-            mTimePaint = createTextPaint(ContextCompat.getColor(
-                    SunshineWatchFace.this, R.color.digital_text));
-            //Initialize text paint for date
-            mDateTextPaint = new Paint();
-            mDateTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            // Initialize temperature text paint for max and min temps
-            mMaxTempPaint = createTextPaint(ContextCompat.getColor(
-                    SunshineWatchFace.this, R.color.digital_text));
-            mMaxTempPaint.setTextSize(resources.getDimension(R.dimen.digital_min_temp_text_size));
-
-            mMinTempPaint = createTextPaint(ContextCompat.getColor(
-                    SunshineWatchFace.this, R.color.digital_text_transparent));
-            mMinTempPaint.setTextSize(resources.getDimension(R.dimen.digital_min_temp_text_size));
-
-            mCalendar = Calendar.getInstance();
+            mRenderer = new WatchFaceRenderer(SunshineWatchFace.this);
+            mStats = new WatchFaceStats(getResources().getBoolean(R.bool.watch_face_stats));
+            // Always listening, so recording can be switched on in the field; only the shell
+            // and the system may send it
+            SunshineWatchFace.this.registerReceiver(mDumpStatsReceiver,
+                    new IntentFilter(WatchFaceStats.ACTION_DUMP),
+                    Manifest.permission.DUMP, null);
+
+            boolean showSeconds = getResources().getBoolean(R.bool.show_seconds);
+            mRenderer.setShowSeconds(showSeconds);
+            mRedrawScheduler.setShowSeconds(showSeconds);
+
+            // Draw the last forecast from the first frame on; the phone is only asked for a
+            // new one once it is old
+            mWeatherIcons = new WeatherIcons(SunshineWatchFace.this);
+            mForecastCache = new ForecastCache(SunshineWatchFace.this);
+            mWorkThread = new HandlerThread(TAG);
+            mWorkThread.start();
+            mWorkQueue = new WorkQueue(mWorkThread.getLooper(), WORK_QUEUE_CAPACITY);
+            mForecastMaxAgeMs = TimeUnit.MINUTES.toMillis(
+                    getResources().getInteger(R.integer.forecast_cache_max_age_minutes));
+            ForecastCache.Entry cached = mForecastCache.load();
+            if (cached != null) {
+                mHeldMessage = cached.message;
+                mHeldSequence = cached.sequence;
+                showForecast(cached.forecast);
+            }
 
             mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFace.this)
                     .addConnectionCallbacks(this)
@@ -210,116 +235,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mSwitchedToThisWatchFace = true;
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
 
             // Load resources that have alternate values for round watches.
-            Resources resources = SunshineWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
-
-            float textSize = resources.getDimension(isRound
-                    ? R.dimen.digital_time_text_size_round : R.dimen.digital_time_text_size);
-            float dateTextSize = resources.getDimension(isRound
-                    ?R.dimen.date_text_size_round:R.dimen.date_text_size);
-
-            mTimePaint.setTextSize(textSize);
-
-            mDateTextPaint.setTextSize(dateTextSize);
-            mDateTextPaint.setTypeface(Typeface.create("roboto",Typeface.NORMAL));
-            //Figure out how much to offset time from the center point to make it look center
-            mCenterXTimeOffset = mTimePaint.measureText(TIME_STRING)/2;
-            mHourWidth = mTimePaint.measureText(HOUR_STRING);
-            mColonWidth = mTimePaint.measureText(COLON_STRING);
+            mRenderer.setRound(insets.isRound());
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
+            long start = mStats.startTiming();
             long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-
-            String time_text = mAmbient
-                    ? String.format("%d:%02d", mCalendar.get(Calendar.HOUR_OF_DAY),
-                    mCalendar.get(Calendar.MINUTE))
-                    : String.format("%d:%02d", mCalendar.get(Calendar.HOUR_OF_DAY),
-                    mCalendar.get(Calendar.MINUTE));
-            float timeXOffset = computeXOffset(time_text,mTimePaint,bounds);
-            float timeYOffset = computeTimeYOffset(time_text,mTimePaint,bounds);
-            canvas.drawText(time_text, timeXOffset, timeYOffset, mTimePaint);
-
-            String date_text =mAmbient
-                    ? ""
-                    :new SimpleDateFormat("E, MMM d  yyyy").format(mCalendar.getTime());
-            float dateXOffset = computeXOffset(date_text,mDateTextPaint,bounds);
-            float dateYOffset = computeDateYOffset(date_text,mDateTextPaint,timeYOffset);
-            canvas.drawText(date_text,dateXOffset,dateYOffset,mDateTextPaint);
-
-
-            float centerX = bounds.width()/2f;
-            float centerY = bounds.height()/2f;
-            // Draw forecast bitmap
-            float forecastBitmapXOffset = centerX - mCenterXForecastOffset;
-            float forecastBitmapYOffset = centerY + mCenterYForecastOffset;
-            if(mForecastBitmap != null && !isInAmbientMode()){
-                canvas.drawBitmap(
-                        mForecastBitmap,
-                        forecastBitmapXOffset,
-                        forecastBitmapYOffset,
-                        null);
+            if (now >= mNextDayStart) {
+                // Midnight passed; move on to the next day the phone sent
+                showDay(now);
             }
-
-            // Draw max temp
-            if(mMaxTemp != null){
-                canvas.drawText(
-                        mMaxTemp,
-                        forecastBitmapXOffset + mForecastBitmapWidth,
-                        forecastBitmapYOffset + mForecastBitmapHalfHeight + mTempTextHalfHeight,
-                        mMaxTempPaint);
-            }
-
-            // Draw min temp
-            if(mMinTemp != null){
-                canvas.drawText(
-                        mMinTemp,
-                        forecastBitmapXOffset + mForecastBitmapWidth + mMaxTempWidth,
-                        forecastBitmapYOffset + mForecastBitmapHalfHeight + mTempTextHalfHeight,
-                        mMinTempPaint);
-            }
-        }
-        //functions to compute X and Y offset of date and time
-        private float computeXOffset(String text,Paint paint,Rect watchBounds){
-            float centerX = watchBounds.exactCenterX();
-            float timelength = paint.measureText(text);
-            return centerX- (timelength/2.0f);
-        }
-        private float computeTimeYOffset(String timetext,Paint timePaint,Rect watchBounds){
-            float centerY = watchBounds.exactCenterY();
-            Rect textBounds = new Rect();
-            timePaint.getTextBounds(timetext,0,timetext.length(),textBounds);
-            int textHeight = textBounds.height();
-            return centerY - textHeight;
-        }
-        private float computeDateYOffset(String date_text,Paint datePaint,float timeYOffset){
-            Rect textBounds = new Rect();
-            datePaint.getTextBounds(date_text,0,date_text.length(),textBounds);
-            return timeYOffset+textBounds.height() + 10.0f;
+            mRenderer.draw(canvas, bounds, now);
+            mStats.recordDraw(start, mAmbient);
         }
 
         @Override
@@ -330,7 +263,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.setTimeZone(TimeZone.getDefault());
                 mGoogleApiClient.connect();
             } else {
                 unregisterReceiver();
@@ -339,6 +272,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     Wearable.NodeApi.removeListener(mGoogleApiClient, this);
                     Wearable.MessageApi.removeListener(mGoogleApiClient, this);
                     mGoogleApiClient.disconnect();
+                    mPhoneNodes.clear();
                 }
             }
 
@@ -352,6 +286,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mStats.recordInvalidate(WatchFaceStats.SOURCE_TIME_TICK);
             invalidate();
         }
 
@@ -366,20 +301,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if(mAmbient!= inAmbientMode){
                 mAmbient = inAmbientMode;
-                if(mLowBitAmbient) {
-                    mTimePaint.setAntiAlias(!inAmbientMode);
-                    mMaxTempPaint.setAntiAlias(!inAmbientMode);
-                    mMinTempPaint.setAntiAlias(!inAmbientMode);
-                    mDateTextPaint.setAntiAlias(!inAmbientMode);
-                    mBackgroundPaint.setColor(inAmbientMode ? Color.BLACK :
-                            ContextCompat.getColor(SunshineWatchFace.this,
-                                    R.color.digital_background));
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
             }
 
-
-
-
+            mStats.recordInvalidate(WatchFaceStats.SOURCE_AMBIENT_CHANGE);
             invalidate();
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -390,75 +315,139 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         @Override
         public void onMessageReceived(MessageEvent messageEvent) {
             if(messageEvent.getPath().equals(WEARABLE_MSG_PATH)){
+                long start = mStats.startTiming();
                 try {
-                    byte[][] byteArrayMsgHolder = (byte[][]) deserialize(messageEvent.getData());
-
-                    // Un-package the data the same way we packaged it
-                    mForecastBitmap = BitmapFactory.decodeByteArray(
-                            byteArrayMsgHolder[0],
-                            0,
-                            byteArrayMsgHolder[0].length);
-
-                    mMinTemp = new String(byteArrayMsgHolder[1]);
-                    mMaxTemp = new String(byteArrayMsgHolder[2]);
+                    applyUpdate(ForecastUpdate.decode(messageEvent.getData()));
+                }catch (IOException e){
+                    Log.e(TAG, Log.getStackTraceString(e));
+                }
+                mStats.recordUpdate(start);
+            }
+        }
 
-                    // Add spacing so it doesn't look scrunched up together
-                    mMinTemp = TEMPERATURE_SPACING + mMinTemp;
-                    mMaxTemp = TEMPERATURE_SPACING + mMaxTemp;
+        /**
+         * Brings the held forecast up to date and tells the phone what it holds now.
+         */
+        private void applyUpdate(ForecastUpdate update) throws IOException {
+            if (update.checksum == ForecastUpdate.checksum(mHeldMessage)) {
+                // Already held: the phone confirmed it is current after a request, or the
+                // acknowledgement was lost.  Either way it needn't be asked for again for a while
+                mWorkQueue.post(KEY_MARK_FORECAST_FRESH, mMarkForecastFreshTask);
+                sendStatusToPhone(false);
+                return;
+            }
+            if (mHeldMessage != null && !ForecastUpdate.isNewer(update.sequence, mHeldSequence)) {
+                // Overtaken by the forecast held; the status tells the phone which that is
+                sendStatusToPhone(false);
+                return;
+            }
 
-                    float minTempTextWidth = mMinTempPaint.measureText(mMinTemp);
-                    mMaxTempWidth = mMaxTempPaint.measureText(mMaxTemp);
-                    float totalTempTextWidth = minTempTextWidth + mMaxTempWidth;
+            byte[] message;
+            try {
+                message = update.apply(mHeldMessage);
+            } catch (IOException e) {
+                // A delta against a forecast this watch doesn't hold; ask for all of it
+                Log.w(TAG, "Unable to apply forecast update: " + e.getMessage());
+                sendStatusToPhone(true);
+                return;
+            }
+            ForecastMessage forecast = ForecastMessage.decode(message);
+            showForecast(forecast);
+            mHeldMessage = message;
+            mHeldSequence = update.sequence;
+            // A later update replaces one that hasn't been written yet
+            mUnsavedForecast.set(new ForecastCache.Entry(update.sequence, message, forecast));
+            mWorkQueue.post(KEY_SAVE_FORECAST, mSaveForecastTask);
+            sendStatusToPhone(false);
+            mStats.recordInvalidate(WatchFaceStats.SOURCE_MESSAGE);
+            invalidate();
+        }
 
-                    mForecastBitmapWidth = mForecastBitmap.getWidth();
+        private void showForecast(ForecastMessage forecast) {
+            mForecast = forecast;
+            showDay(System.currentTimeMillis());
+        }
 
-                    // Divide total width by 2 to calculate bitmap position
-                    mCenterXForecastOffset = (mForecastBitmapWidth + totalTempTextWidth)/2;
+        /**
+         * Hands the renderer the day of mForecast that <code>now</code> falls in, with the icon
+         * for its weather id.  Once the last day has passed it stays up while the phone is asked
+         * for a newer forecast.
+         */
+        private void showDay(long now) {
+            int index = mForecast.getDayIndex(now);
+            ForecastMessage.Day day = mForecast.days.get(index);
+            if (index + 1 < mForecast.days.size()) {
+                mNextDayStart = mForecast.days.get(index + 1).date;
+            } else if (now < day.date + DAY_MS) {
+                mNextDayStart = day.date + DAY_MS;
+            } else {
+                // The last day the phone sent is over too; ask it once for a newer forecast
+                mNextDayStart = Long.MAX_VALUE;
+                sendStatusToPhone(true);
+            }
 
-                    // Find center height of bitmap.
-                    // It is used to center the temperature to the bitmap.
-                    mForecastBitmapHalfHeight = mForecastBitmap.getHeight()/2f;
+            // Add spacing so it doesn't look scrunched up together
+            mRenderer.setForecast(mWeatherIcons.getIcon(day.weatherId),
+                    TEMPERATURE_SPACING + formatTemperature(day.low, mForecast.metric),
+                    TEMPERATURE_SPACING + formatTemperature(day.high, mForecast.metric));
+        }
 
-                    // Find the center height of temperature text.
-                    // It is also used to center the temperature to the bitmap.
-                    Rect bounds = new Rect();
-                    mMaxTempPaint.getTextBounds(mMaxTemp, 0, mMaxTemp.length(), bounds);
-                    mTempTextHalfHeight = bounds.height()/2f;
+        /**
+         * Temperatures arrive in Celsius; convert them if the phone is set to imperial units.
+         */
+        private String formatTemperature(double temperature, boolean metric) {
+            if (!metric) {
+                temperature = (temperature * 1.8) + 32;
+            }
+            // For presentation, assume the user doesn't care about tenths of a degree.
+            return String.format(getString(R.string.format_temperature), temperature);
+        }
 
-                    invalidate();
-                }catch (IOException | ClassNotFoundException e){
-                    Log.e(TAG, Log.getStackTraceString(e));
-                }
+        /**
+         * Asks the phone for the forecast unless the cached one was received or confirmed
+         * recently enough.  The phone pushes a new forecast whenever a sync changes it
+         * regardless.
+         */
+        private void requestForecastIfStale() {
+            if (mForecastCache.getAgeMs(System.currentTimeMillis()) > mForecastMaxAgeMs) {
+                sendStatusToPhone(true);
             }
         }
 
         /**
-         * Sends a msg using the <code>MessageApi</code> to tell that we are ready to receive
-         * forecast
+         * Sends a msg using the <code>MessageApi</code> to tell the phone which forecast we
+         * hold, and whether we want it to send one
          */
-        private void sendReadyMessageToPhone(){
-            if(mGoogleApiClient.isConnected()) {
-                new Thread(){
-                    @Override
-                    public void run() {
-                        NodeApi.GetConnectedNodesResult nodesList =
-                                Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
-
-                        for(Node node : nodesList.getNodes()){
-                            Wearable.MessageApi.sendMessage(
-                                    mGoogleApiClient,
-                                    node.getId(),
-                                    WEARABLE_MSG_PATH,
-                                    WEARABLE_RDY_MSG.getBytes()).await();
-                        }
-                    }
-                }.start();
+        private void sendStatusToPhone(boolean request){
+            // Not built yet while onCreate shows the cached forecast; requestForecastIfStale
+            // asks once connected if that forecast is old
+            if(mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
+                byte[] status = new ForecastUpdate.Status(mHeldSequence,
+                        ForecastUpdate.checksum(mHeldMessage), request).encode();
+                // Sent to every phone at once, without waiting; a status that is lost is
+                // resent with the next update or request
+                for (String nodeId : mPhoneNodes) {
+                    Wearable.MessageApi.sendMessage(
+                            mGoogleApiClient,
+                            nodeId,
+                            WEARABLE_MSG_PATH,
+                            status).setResultCallback(mSendResultCallback);
+                }
             }
         }
 
+
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            SunshineWatchFace.this.unregisterReceiver(mDumpStatsReceiver);
+            if (mStats.isEnabled()) {
+                dumpStats();
+            }
+            mRenderer.releaseLayers();
+            // Lets a pending write finish
+            mWorkThread.quitSafely();
+            Log.d(TAG, "Work queue: " + mWorkQueue);
             super.onDestroy();
         }
 
@@ -467,17 +456,28 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             Wearable.NodeApi.addListener(mGoogleApiClient, this);
             Wearable.MessageApi.addListener(mGoogleApiClient, this);
 
-            if(mSwitchedToThisWatchFace) {
-                sendReadyMessageToPhone();
-                mSwitchedToThisWatchFace = false;
-            }
+            // Look the phones up once; the listener keeps the set current from here on
+            Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(
+                    new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                        @Override
+                        public void onResult(NodeApi.GetConnectedNodesResult result) {
+                            mPhoneNodes.clear();
+                            for (Node node : result.getNodes()) {
+                                mPhoneNodes.add(node.getId());
+                            }
+                            if(mSwitchedToThisWatchFace) {
+                                requestForecastIfStale();
+                                mSwitchedToThisWatchFace = false;
+                            }
+                        }
+                    });
         }
 
         @Override  // GoogleApiClient.ConnectionCallbacks
         public void onConnectionSuspended(int cause) {
             Wearable.NodeApi.removeListener(mGoogleApiClient, this);
             Wearable.MessageApi.removeListener(mGoogleApiClient, this);
-
+            mPhoneNodes.clear();
         }
 
         @Override  // GoogleApiClient.OnConnectionFailedListener
@@ -488,12 +488,14 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onPeerConnected(Node node) {
+            mPhoneNodes.add(node.getId());
             // request data once a peer is connected
-            sendReadyMessageToPhone();
+            requestForecastIfStale();
         }
 
         @Override
         public void onPeerDisconnected(Node node) {
+            mPhoneNodes.remove(node.getId());
         }
 
         /**
@@ -519,21 +521,27 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            mStats.recordInvalidate(WatchFaceStats.SOURCE_TIMER);
             invalidate();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                // Sleep until the next minute (or second) starts rather than redrawing the same
+                // face in between
+                long delayMs = mRedrawScheduler.getDelayMs(System.currentTimeMillis());
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
+        private void dumpStats() {
+            Log.i(TAG, mStats.dump(mRenderer.getLayerBytes() + mWeatherIcons.getByteCount()));
+        }
+
         private void registerReceiver() {
             if (mRegisteredTimeZoneReceiver) {
                 return;
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
             SunshineWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
         }
 
@@ -544,11 +552,5 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = false;
             SunshineWatchFace.this.unregisterReceiver(mTimeZoneReceiver);
         }
-
-        public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
-            ByteArrayInputStream b = new ByteArrayInputStream(bytes);
-            ObjectInputStream o = new ObjectInputStream(b);
-            return o.readObject();
-        }
     }
 }
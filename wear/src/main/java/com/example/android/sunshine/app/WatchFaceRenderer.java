@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.ContextCompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Draws the Sunshine watch face: the time, the date and today's forecast.
+ * <p>
+ * {@link #draw} runs every frame, so it does not allocate. The time is written into a char
+ * buffer, the date string is rebuilt only when the day or the time zone changes, and text is
+ * measured again only when what it says or where it goes changes.
+ * <p>
+ * Only the time changes from frame to frame. The background, date and forecast are drawn once
+ * into an off-screen layer, one for each of interactive, ambient and low-bit ambient mode, and
+ * each frame copies the layer for the current mode and draws the time over it. A layer is
+ * drawn again only when the date, the forecast or the surface changes.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final String DATE_PATTERN = "E, MMM d  yyyy";
+
+    // Gap between the time and the date below it
+    private static final float DATE_TOP_MARGIN = 10.0f;
+
+    // Measured for the height of the time, which is the same for any digits
+    private static final String TIME_HEIGHT_TEXT = "00:00";
+
+    private static final int LAYER_INTERACTIVE = 0;
+    private static final int LAYER_AMBIENT = 1;
+    private static final int LAYER_LOW_BIT_AMBIENT = 2;
+
+    private final Context mContext;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTimePaint;
+    private final Paint mMaxTempPaint;
+    private final Paint mMinTempPaint;
+    private final Paint mDateTextPaint;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    // Built for mDateLocale, and again when the default locale changes
+    private SimpleDateFormat mDateFormat;
+    private Locale mDateLocale;
+    private final Date mDate = new Date();
+    private final Rect mTextBounds = new Rect();
+
+    private final float mCenterYForecastOffset;
+
+    // H:MM or HH:MM, followed by :SS in seconds mode
+    private final char[] mTimeText = new char[8];
+    private int mTimeLength;
+    // The minute of the day mTimeText shows, or -1 to rebuild it
+    private int mTimeMinute = -1;
+    // The second mTimeText shows, or -1 if it shows none
+    private int mTimeSecond = -1;
+    private boolean mShowSeconds;
+
+    private String mDateText;
+    // The day mDateText shows, as year * 1000 + day of year, or -1 to rebuild it
+    private int mDateDay = -1;
+
+    // Where the text goes, valid for mLayoutWidth x mLayoutHeight
+    private boolean mLayoutValid;
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+    private float mTimeXOffset;
+    private float mTimeYOffset;
+    private float mDateXOffset;
+    private float mDateYOffset;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    // Indexed by LAYER_*; created when a mode is first drawn
+    private final Bitmap[] mLayers = new Bitmap[3];
+    private final boolean[] mLayerValid = new boolean[3];
+    private final Canvas mLayerCanvas = new Canvas();
+    // How many times a layer was drawn
+    private int mLayerBuildCount;
+
+    private Bitmap mForecastBitmap;
+    private String mMinTemp;
+    private String mMaxTemp;
+    private float mCenterXForecastOffset;
+    private float mMaxTempWidth;
+    private float mTempTextHalfHeight;
+    private float mForecastBitmapHalfHeight;
+    private int mForecastBitmapWidth;
+
+    WatchFaceRenderer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+
+        // Retrieve specified offsets used to position the forecast correctly
+        mCenterYForecastOffset = resources.getDimension(R.dimen.digital_y_forecast_offset);
+
+        // Initialize background paint
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(ContextCompat.getColor(context, R.color.digital_background));
+
+        // Initialize time text paint for hour, colon, and minutes
+        mTimePaint = createTextPaint(ContextCompat.getColor(context, R.color.digital_text));
+
+        //Initialize text paint for date
+        mDateTextPaint = createTextPaint(ContextCompat.getColor(context, R.color.digital_text));
+        mDateTextPaint.setTypeface(Typeface.create("roboto", Typeface.NORMAL));
+
+        // Initialize temperature text paint for max and min temps
+        mMaxTempPaint = createTextPaint(ContextCompat.getColor(context, R.color.digital_text));
+        mMaxTempPaint.setTextSize(resources.getDimension(R.dimen.digital_min_temp_text_size));
+
+        mMinTempPaint = createTextPaint(ContextCompat.getColor(
+                context, R.color.digital_text_transparent));
+        mMinTempPaint.setTextSize(resources.getDimension(R.dimen.digital_min_temp_text_size));
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    /**
+     * Loads the text sizes that have alternate values for round watches.
+     */
+    void setRound(boolean isRound) {
+        Resources resources = mContext.getResources();
+        mTimePaint.setTextSize(resources.getDimension(isRound
+                ? R.dimen.digital_time_text_size_round : R.dimen.digital_time_text_size));
+        mDateTextPaint.setTextSize(resources.getDimension(isRound
+                ? R.dimen.date_text_size_round : R.dimen.date_text_size));
+        mLayoutValid = false;
+    }
+
+    /**
+     * @param showSeconds whether to show seconds in interactive mode
+     */
+    void setShowSeconds(boolean showSeconds) {
+        mShowSeconds = showSeconds;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        if (mDateFormat != null) {
+            mDateFormat.setTimeZone(timeZone);
+        }
+        mTimeMinute = -1;
+        mDateDay = -1;
+    }
+
+    /**
+     * @param lowBitAmbient whether the screen shows fewer colors, without anti-aliasing, in
+     *                      ambient mode
+     */
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        mLowBitAmbient = lowBitAmbient;
+        if (lowBitAmbient) {
+            mTimePaint.setAntiAlias(!ambient);
+            mMaxTempPaint.setAntiAlias(!ambient);
+            mMinTempPaint.setAntiAlias(!ambient);
+            mDateTextPaint.setAntiAlias(!ambient);
+            mBackgroundPaint.setColor(ambient ? Color.BLACK :
+                    ContextCompat.getColor(mContext, R.color.digital_background));
+        }
+    }
+
+    /**
+     * Sets today's forecast and lays it out.  Runs once per forecast, not per frame.
+     *
+     * @param forecastBitmap the icon, or null to show the temperatures alone
+     */
+    void setForecast(Bitmap forecastBitmap, String minTemp, String maxTemp) {
+        mForecastBitmap = forecastBitmap;
+        mMinTemp = minTemp;
+        mMaxTemp = maxTemp;
+
+        float minTempTextWidth = mMinTempPaint.measureText(mMinTemp);
+        mMaxTempWidth = mMaxTempPaint.measureText(mMaxTemp);
+        float totalTempTextWidth = minTempTextWidth + mMaxTempWidth;
+
+        mForecastBitmapWidth = mForecastBitmap != null ? mForecastBitmap.getWidth() : 0;
+
+        // Divide total width by 2 to calculate bitmap position
+        mCenterXForecastOffset = (mForecastBitmapWidth + totalTempTextWidth) / 2;
+
+        // Find center height of bitmap.
+        // It is used to center the temperature to the bitmap.
+        mForecastBitmapHalfHeight = mForecastBitmap != null ? mForecastBitmap.getHeight() / 2f : 0;
+
+        // Find the center height of temperature text.
+        // It is also used to center the temperature to the bitmap.
+        mMaxTempPaint.getTextBounds(mMaxTemp, 0, mMaxTemp.length(), mTextBounds);
+        mTempTextHalfHeight = mTextBounds.height() / 2f;
+
+        invalidateLayers();
+    }
+
+    void draw(Canvas canvas, Rect bounds, long now) {
+        mCalendar.setTimeInMillis(now);
+        updateText(bounds, now);
+
+        // Everything but the time comes from the layer for the current mode
+        canvas.drawBitmap(getStaticLayer(), 0, 0, null);
+
+        // Draw H:MM, or H:MM:SS
+        canvas.drawText(mTimeText, 0, mTimeLength, mTimeXOffset, mTimeYOffset, mTimePaint);
+    }
+
+    /**
+     * Returns the background, date and forecast for the current mode, drawing them first if
+     * they changed since the layer was last drawn.
+     */
+    private Bitmap getStaticLayer() {
+        int mode = !mAmbient ? LAYER_INTERACTIVE
+                : mLowBitAmbient ? LAYER_LOW_BIT_AMBIENT : LAYER_AMBIENT;
+        Bitmap layer = mLayers[mode];
+        if (layer == null) {
+            layer = Bitmap.createBitmap(mLayoutWidth, mLayoutHeight, Bitmap.Config.ARGB_8888);
+            mLayers[mode] = layer;
+            mLayerValid[mode] = false;
+        }
+        if (!mLayerValid[mode]) {
+            mLayerCanvas.setBitmap(layer);
+            drawStaticLayer(mLayerCanvas, mLayoutWidth, mLayoutHeight);
+            mLayerCanvas.setBitmap(null);
+            mLayerValid[mode] = true;
+            mLayerBuildCount++;
+        }
+        return layer;
+    }
+
+    private void drawStaticLayer(Canvas canvas, int width, int height) {
+        // Draw the background.
+        if (mAmbient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+        }
+
+        // The date and the forecast bitmap are left out in ambient mode
+        if (!mAmbient) {
+            canvas.drawText(mDateText, mDateXOffset, mDateYOffset, mDateTextPaint);
+        }
+
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        // Draw forecast bitmap
+        float forecastBitmapXOffset = centerX - mCenterXForecastOffset;
+        float forecastBitmapYOffset = centerY + mCenterYForecastOffset;
+        if (mForecastBitmap != null && !mAmbient) {
+            canvas.drawBitmap(
+                    mForecastBitmap,
+                    forecastBitmapXOffset,
+                    forecastBitmapYOffset,
+                    null);
+        }
+
+        // Draw max temp
+        if (mMaxTemp != null) {
+            canvas.drawText(
+                    mMaxTemp,
+                    forecastBitmapXOffset + mForecastBitmapWidth,
+                    forecastBitmapYOffset + mForecastBitmapHalfHeight + mTempTextHalfHeight,
+                    mMaxTempPaint);
+        }
+
+        // Draw min temp
+        if (mMinTemp != null) {
+            canvas.drawText(
+                    mMinTemp,
+                    forecastBitmapXOffset + mForecastBitmapWidth + mMaxTempWidth,
+                    forecastBitmapYOffset + mForecastBitmapHalfHeight + mTempTextHalfHeight,
+                    mMinTempPaint);
+        }
+    }
+
+    private void invalidateLayers() {
+        Arrays.fill(mLayerValid, false);
+    }
+
+    /**
+     * Frees the layers, e.g. when the surface changes size or the face goes away.
+     */
+    void releaseLayers() {
+        for (int i = 0; i < mLayers.length; i++) {
+            if (mLayers[i] != null) {
+                mLayers[i].recycle();
+                mLayers[i] = null;
+            }
+        }
+        invalidateLayers();
+    }
+
+    /**
+     * @return the memory the layers hold, for {@link WatchFaceStats}
+     */
+    long getLayerBytes() {
+        long bytes = 0;
+        for (Bitmap layer : mLayers) {
+            if (layer != null) {
+                bytes += layer.getByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return how many times a layer was drawn since the renderer was created
+     */
+    @VisibleForTesting
+    int getLayerBuildCount() {
+        return mLayerBuildCount;
+    }
+
+    @VisibleForTesting
+    String getDateText() {
+        return mDateText;
+    }
+
+    /**
+     * Brings the time and date text, and where they are drawn, up to date with mCalendar.
+     */
+    private void updateText(Rect bounds, long now) {
+        if (bounds.width() != mLayoutWidth || bounds.height() != mLayoutHeight) {
+            mLayoutWidth = bounds.width();
+            mLayoutHeight = bounds.height();
+            mLayoutValid = false;
+            releaseLayers();
+        }
+        float centerX = bounds.exactCenterX();
+        float centerY = bounds.exactCenterY();
+        boolean timeChanged = false;
+
+        int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        int minute = mCalendar.get(Calendar.MINUTE);
+        int minuteOfDay = hour * 60 + minute;
+        int second = mShowSeconds && !mAmbient ? mCalendar.get(Calendar.SECOND) : -1;
+        if (minuteOfDay != mTimeMinute || second != mTimeSecond) {
+            mTimeMinute = minuteOfDay;
+            mTimeSecond = second;
+            int length = 0;
+            if (hour >= 10) {
+                mTimeText[length++] = (char) ('0' + hour / 10);
+            }
+            mTimeText[length++] = (char) ('0' + hour % 10);
+            mTimeText[length++] = ':';
+            mTimeText[length++] = (char) ('0' + minute / 10);
+            mTimeText[length++] = (char) ('0' + minute % 10);
+            if (second >= 0) {
+                mTimeText[length++] = ':';
+                mTimeText[length++] = (char) ('0' + second / 10);
+                mTimeText[length++] = (char) ('0' + second % 10);
+            }
+            mTimeLength = length;
+            timeChanged = true;
+        }
+
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mDateLocale)) {
+            // The user switched language; the day and month names follow it
+            mDateLocale = locale;
+            mDateFormat = new SimpleDateFormat(DATE_PATTERN, locale);
+            mDateFormat.setTimeZone(mCalendar.getTimeZone());
+            mDateDay = -1;
+        }
+        int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day != mDateDay) {
+            mDateDay = day;
+            mDate.setTime(now);
+            mDateText = mDateFormat.format(mDate);
+            mLayoutValid = false;
+        }
+
+        if (!mLayoutValid) {
+            // The time is placed by the height of its digits, which doesn't change from minute
+            // to minute, so the date under it stays where the static layer drew it
+            mTimePaint.getTextBounds(TIME_HEIGHT_TEXT, 0, TIME_HEIGHT_TEXT.length(), mTextBounds);
+            mTimeYOffset = centerY - mTextBounds.height();
+
+            mDateXOffset = centerX - mDateTextPaint.measureText(mDateText) / 2.0f;
+            mDateTextPaint.getTextBounds(mDateText, 0, mDateText.length(), mTextBounds);
+            mDateYOffset = mTimeYOffset + mTextBounds.height() + DATE_TOP_MARGIN;
+
+            invalidateLayers();
+            mLayoutValid = true;
+            timeChanged = true;
+        }
+
+        if (timeChanged) {
+            mTimeXOffset = centerX - mTimePaint.measureText(mTimeText, 0, mTimeLength) / 2.0f;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in counters for what the watch face costs on a real watch: how long frames take to draw
+ * in interactive and ambient mode, what asked for each frame, how long forecast updates from
+ * the phone take to apply, and how much bitmap memory is held.  On from the start with the
+ * <code>watch_face_stats</code> resource, or switched on and off on a shipped build with the
+ * EXTRA_ENABLE extra; when it is off, every method returns without reading the clock.  The
+ * engine logs a dump when it goes away, or on demand with
+ * <pre>
+ *   adb shell am broadcast -a com.example.android.sunshine.app.action.DUMP_WATCH_FACE_STATS \
+ *       [--ez enable true|false]
+ * </pre>
+ * The broadcast needs the DUMP permission, which the shell has.
+ * Only used on the UI thread.
+ */
+class WatchFaceStats {
+    static final String ACTION_DUMP =
+            "com.example.android.sunshine.app.action.DUMP_WATCH_FACE_STATS";
+    // Boolean; starts or stops recording before the dump
+    static final String EXTRA_ENABLE = "enable";
+
+    // What asked for a frame
+    static final int SOURCE_TIMER = 0;
+    static final int SOURCE_TIME_TICK = 1;
+    static final int SOURCE_MESSAGE = 2;
+    static final int SOURCE_AMBIENT_CHANGE = 3;
+    static final int SOURCE_TIME_CHANGE = 4;
+    private static final String[] SOURCE_NAMES =
+            {"timer", "time tick", "message", "ambient change", "time change"};
+
+    // Upper bounds of the draw time buckets, in microseconds; one more bucket holds the rest.
+    // 16ms is a frame at 60 fps.
+    static final long[] BUCKET_LIMITS_US = {500, 1000, 2000, 4000, 8000, 16000, 33000};
+
+    private static final int MODE_INTERACTIVE = 0;
+    private static final int MODE_AMBIENT = 1;
+    private static final String[] MODE_NAMES = {"interactive", "ambient"};
+
+    private boolean mEnabled;
+
+    private final long[][] mDrawBuckets = new long[2][BUCKET_LIMITS_US.length + 1];
+    private final long[] mDrawCount = new long[2];
+    private final long[] mDrawTotalNs = new long[2];
+    private final long[] mDrawMaxNs = new long[2];
+
+    private final long[] mInvalidations = new long[SOURCE_NAMES.length];
+
+    private long mUpdateCount;
+    private long mUpdateTotalNs;
+    private long mUpdateMaxNs;
+
+    WatchFaceStats(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts or stops recording; the counters keep what was recorded so far.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return the time to pass to one of the record methods when the work is done, or 0 if
+     *         recording is off, which the record methods ignore
+     */
+    long startTiming() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    void recordDraw(long startNs, boolean ambient) {
+        // Recording may have been switched on since the timing started
+        if (!mEnabled || startNs == 0) {
+            return;
+        }
+        long durationNs = System.nanoTime() - startNs;
+        int mode = ambient ? MODE_AMBIENT : MODE_INTERACTIVE;
+        mDrawBuckets[mode][getBucket(durationNs)]++;
+        mDrawCount[mode]++;
+        mDrawTotalNs[mode] += durationNs;
+        mDrawMaxNs[mode] = Math.max(mDrawMaxNs[mode], durationNs);
+    }
+
+    void recordUpdate(long startNs) {
+        if (!mEnabled || startNs == 0) {
+            return;
+        }
+        long durationNs = System.nanoTime() - startNs;
+        mUpdateCount++;
+        mUpdateTotalNs += durationNs;
+        mUpdateMaxNs = Math.max(mUpdateMaxNs, durationNs);
+    }
+
+    void recordInvalidate(int source) {
+        if (mEnabled) {
+            mInvalidations[source]++;
+        }
+    }
+
+    static int getBucket(long durationNs) {
+        long durationUs = TimeUnit.NANOSECONDS.toMicros(durationNs);
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && durationUs >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    long getDrawCount(boolean ambient) {
+        return mDrawCount[ambient ? MODE_AMBIENT : MODE_INTERACTIVE];
+    }
+
+    long getDrawBucketCount(boolean ambient, int bucket) {
+        return mDrawBuckets[ambient ? MODE_AMBIENT : MODE_INTERACTIVE][bucket];
+    }
+
+    long getInvalidateCount(int source) {
+        return mInvalidations[source];
+    }
+
+    long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * @param bitmapBytes the bitmap memory the face holds now
+     * @return the counters, one line each, for the log
+     */
+    String dump(long bitmapBytes) {
+        StringBuilder dump = new StringBuilder("Watch face stats");
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            dump.append("\n  ").append(MODE_NAMES[mode]).append(" frames: ")
+                    .append(mDrawCount[mode]);
+            if (mDrawCount[mode] == 0) {
+                continue;
+            }
+            dump.append(", mean ").append(toMicros(mDrawTotalNs[mode] / mDrawCount[mode]))
+                    .append("us, max ").append(toMicros(mDrawMaxNs[mode])).append("us\n   ");
+            for (int bucket = 0; bucket <= BUCKET_LIMITS_US.length; bucket++) {
+                dump.append(bucket < BUCKET_LIMITS_US.length
+                        ? " <" + BUCKET_LIMITS_US[bucket] + "us: "
+                        : " slower: ");
+                dump.append(mDrawBuckets[mode][bucket]);
+            }
+        }
+        dump.append("\n  invalidated by");
+        for (int source = 0; source < SOURCE_NAMES.length; source++) {
+            dump.append(source == 0 ? " " : ", ").append(SOURCE_NAMES[source]).append(": ")
+                    .append(mInvalidations[source]);
+        }
+        dump.append("\n  forecast updates: ").append(mUpdateCount);
+        if (mUpdateCount > 0) {
+            dump.append(", mean ").append(toMicros(mUpdateTotalNs / mUpdateCount))
+                    .append("us, max ").append(toMicros(mUpdateMaxNs)).append("us");
+        }
+        dump.append("\n  bitmap memory: ").append(bitmapBytes / 1024).append("KB");
+        return dump.toString();
+    }
+
+    private static long toMicros(long durationNs) {
+        return TimeUnit.NANOSECONDS.toMicros(durationNs);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+/**
+ * The forecast icons, bundled with the watch face so the phone only has to send a weather id.
+ * Each icon is decoded and scaled once, the first time it is shown, and kept; there are only
+ * a handful of them.
+ */
+class WeatherIcons {
+    private final Resources mResources;
+    private final int mIconSize;
+
+    // Scaled icons by drawable resource id
+    private final SparseArray<Bitmap> mIcons = new SparseArray<>();
+
+    WeatherIcons(Context context) {
+        mResources = context.getResources();
+        mIconSize = mResources.getDimensionPixelSize(R.dimen.forecast_icon_size);
+    }
+
+    /**
+     * @return the icon for the weather condition, or null if there is none
+     */
+    Bitmap getIcon(int weatherId) {
+        int resourceId = getArtResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            return null;
+        }
+        Bitmap icon = mIcons.get(resourceId);
+        if (icon == null) {
+            Bitmap art = BitmapFactory.decodeResource(mResources, resourceId);
+            icon = Bitmap.createScaledBitmap(art, mIconSize, mIconSize, true);
+            if (icon != art) {
+                art.recycle();
+            }
+            mIcons.put(resourceId, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * @return the memory the icons decoded so far hold, for {@link WatchFaceStats}
+     */
+    long getByteCount() {
+        long bytes = 0;
+        for (int i = 0; i < mIcons.size(); i++) {
+            bytes += mIcons.valueAt(i).getByteCount();
+        }
+        return bytes;
+    }
+
+    /**
+     * Helper method to provide the art resource id according to the weather condition id returned
+     * by the OpenWeatherMap call.  The same mapping as the phone app's Utility.
+     * @param weatherId from OpenWeatherMap API response
+     * @return resource id for the corresponding icon. -1 if no relation is found.
+     */
+    static int getArtResourceForWeatherCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            // 761 stays fog, as it does on the phone
+            return R.drawable.art_fog;
+        } else if (weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+}